@@ -0,0 +1,69 @@
+package ft.benchmark;
+
+import ft.support.DB;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shared setup of the benchmarks.
+ */
+public class Benchmarks {
+
+	public static final String DB_PROPERTIES_FILENAME = "src/benchmark/resources/benchmark.properties";
+	public static final String TABLE = "customer";
+
+	public static void initializeDB() {
+		DB.initializeIfRequired(DB_PROPERTIES_FILENAME);
+	}
+
+	public static void createTable() {
+		DB.executeUpdate("drop table customer if exists");
+		DB.executeUpdate("create table customer (" +
+				" id bigint not null primary key," +
+				" name varchar2(100) not null," +
+				" date_acquired date," +
+				" time_created timestamp not null," +
+				" comment varchar2(100)" +
+				")");
+	}
+
+	/**
+	 * Customer data as it would come from a data table.
+	 */
+	public static List<Map<String, String>> customers(int count) {
+		List<Map<String, String>> data = new ArrayList<>(count);
+		for (int i = 1; i <= count; i++) {
+			Map<String, String> row = new LinkedHashMap<>();
+			row.put("id", String.valueOf(i));
+			row.put("name", "Customer " + i);
+			row.put("date_acquired", i % 3 == 0 ? "" : "2017-12-" + (10 + i % 20));
+			row.put("time_created", "2017-12-13T12:34:" + (10 + i % 50) + ".789Z");
+			row.put("comment", i % 2 == 0 ? "" : "Comment " + i);
+			data.add(row);
+		}
+		return data;
+	}
+
+	/**
+	 * Customer data in the format read by {@link DB#verify(String, List)}.
+	 */
+	public static List<Map<String, String>> expectedCustomers(int count) {
+		List<Map<String, String>> data = customers(count);
+		data.forEach(row -> row.put("time_created",
+				row.get("time_created").replace('T', ' ').replace("Z", "")));
+		return data;
+	}
+
+	/**
+	 * Customer data ready to be inserted.
+	 */
+	public static List<Map<String, Object>> customerRows(int count) {
+		return DB.RowsBuilder.from(customers(count))
+				.asDate("date_acquired")
+				.asTimestamp("time_created")
+				.build();
+	}
+}
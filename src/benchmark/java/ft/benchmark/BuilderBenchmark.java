@@ -0,0 +1,83 @@
+package ft.benchmark;
+
+import ft.support.DB;
+import ft.support.OracleDB;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Building rows to insert and converting rows read, 1k rows each.
+ * Rows are converted both as plain maps and as the compact rows read by DB queries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BuilderBenchmark {
+
+	private List<Map<String, String>> data;
+	private List<Map<String, String>> expectedData;
+	private List<Map<String, String>> queryRows;
+	private UnaryOperator<Map<String, String>> rowConverter;
+
+	@Setup
+	public void setUp() {
+		data = Benchmarks.customers(1000);
+		expectedData = Benchmarks.expectedCustomers(1000);
+		rowConverter = DB.RowConverterBuilder.create()
+				.convert("date_acquired", value ->
+						value == null || value.isEmpty() ? value : OracleDB.asDate(value))
+				.convert("name", String::toUpperCase)
+				.build();
+		Benchmarks.initializeDB();
+		Benchmarks.createTable();
+		DB.insert(Benchmarks.TABLE, Benchmarks.customerRows(1000));
+		// the rows of a query are only exposed to its row converter
+		queryRows = new ArrayList<>();
+		DB.verify(Benchmarks.TABLE, expectedData, row -> {
+			queryRows.add(row);
+			return row;
+		});
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> rowsBuilder() {
+		return DB.RowsBuilder.from(data)
+				.with("name", "Default customer name")
+				.with("comment", () -> "Generated comment")
+				.asDate("date_acquired")
+				.asTimestamp("time_created")
+				.build();
+	}
+
+	@Benchmark
+	public List<Map<String, String>> rowConverter() {
+		return expectedData.stream()
+				.map(rowConverter)
+				.collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public List<Map<String, String>> rowConverterOnQueryRows() {
+		return queryRows.stream()
+				.map(rowConverter)
+				.collect(Collectors.toList());
+	}
+}
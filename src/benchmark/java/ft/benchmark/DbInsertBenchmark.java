@@ -0,0 +1,54 @@
+package ft.benchmark;
+
+import ft.support.DB;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserting 10k rows with different batch sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DbInsertBenchmark {
+
+	@Param({"1", "100", "1000"})
+	public int batchSize;
+
+	private List<Map<String, Object>> rows;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Benchmarks.initializeDB();
+		Benchmarks.createTable();
+		DB.batchSize = batchSize;
+		rows = Benchmarks.customerRows(10000);
+	}
+
+	@Setup(Level.Invocation)
+	public void deleteRows() {
+		DB.delete(Benchmarks.TABLE);
+	}
+
+	@Benchmark
+	public void insert() {
+		DB.insert(Benchmarks.TABLE, rows);
+	}
+}
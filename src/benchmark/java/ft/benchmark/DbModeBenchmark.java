@@ -0,0 +1,110 @@
+package ft.benchmark;
+
+import ft.support.DB;
+import org.apache.commons.io.FileUtils;
+import org.h2.tools.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scenario setting up and verifying 100 rows in a cloned schema,
+ * against an in-memory H2 database (the h2-mem profile), an embedded file database,
+ * a file database with automatic server mode (the default profile) and an H2 TCP server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DbModeBenchmark {
+
+	private static final Path DB_DIRECTORY = Paths.get("target", "benchmark-db").toAbsolutePath();
+
+	@Param({"mem", "file", "autoServer", "tcp"})
+	public String mode;
+
+	private Server server;
+	private List<Map<String, Object>> rows;
+	private List<Map<String, String>> expectedData;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, SQLException {
+		FileUtils.deleteDirectory(DB_DIRECTORY.toFile());
+		String url;
+		switch (mode) {
+			case "mem":
+				url = "jdbc:h2:mem:benchmark;MVCC=TRUE;DB_CLOSE_DELAY=-1";
+				break;
+			case "file":
+				url = "jdbc:h2:" + DB_DIRECTORY.resolve("file") + ";MVCC=TRUE;DB_CLOSE_ON_EXIT=FALSE";
+				break;
+			case "autoServer":
+				url = "jdbc:h2:" + DB_DIRECTORY.resolve("auto") + ";MVCC=TRUE;DB_CLOSE_ON_EXIT=FALSE;AUTO_SERVER=true";
+				break;
+			case "tcp":
+				server = Server.createTcpServer("-tcpPort", "0", "-baseDir", DB_DIRECTORY.toString()).start();
+				url = "jdbc:h2:tcp://localhost:" + server.getPort() + "/tcp;MVCC=TRUE";
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown mode " + mode);
+		}
+		DB.initializeIfRequired(writeProperties(url).toString());
+		DB.createTemplate(Benchmarks.TABLE, Benchmarks::createTable);
+		rows = Benchmarks.customerRows(100);
+		expectedData = Benchmarks.expectedCustomers(100);
+	}
+
+	private static Path writeProperties(String url) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream is = Files.newInputStream(Paths.get(Benchmarks.DB_PROPERTIES_FILENAME))) {
+			properties.load(is);
+		}
+		properties.setProperty("database.connectionUrl", url);
+		Files.createDirectories(DB_DIRECTORY);
+		Path file = DB_DIRECTORY.resolve("benchmark.properties");
+		try (OutputStream os = Files.newOutputStream(file)) {
+			properties.store(os, null);
+		}
+		return file;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		DB.shutdown();
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	@Benchmark
+	public void scenario() {
+		DB.useTemplate(Benchmarks.TABLE);
+		DB.insert(Benchmarks.TABLE, rows);
+		DB.verify(Benchmarks.TABLE, expectedData);
+		DB.releaseConnection();
+	}
+}
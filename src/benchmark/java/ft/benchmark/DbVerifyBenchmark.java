@@ -0,0 +1,54 @@
+package ft.benchmark;
+
+import ft.support.DB;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifying tables of different sizes, loaded and streamed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class DbVerifyBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	public int rowCount;
+
+	private List<Map<String, String>> expectedData;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Benchmarks.initializeDB();
+		Benchmarks.createTable();
+		DB.insert(Benchmarks.TABLE, Benchmarks.customerRows(rowCount));
+		expectedData = Benchmarks.expectedCustomers(rowCount);
+	}
+
+	@Benchmark
+	public void verify() {
+		DB.verify(Benchmarks.TABLE, expectedData);
+	}
+
+	@Benchmark
+	public void verifyStreaming() {
+		DB.verifyStreaming(Benchmarks.TABLE, expectedData);
+	}
+}
@@ -0,0 +1,83 @@
+package ft.benchmark;
+
+import com.jayway.jsonpath.DocumentContext;
+import ft.support.File;
+import ft.support.JSON;
+import ft.support.Matchers;
+import ft.support.REST;
+import io.restassured.builder.ResponseBuilder;
+import io.restassured.http.ContentType;
+import io.restassured.response.ValidatableResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Formatting and comparing JSON of the people response template
+ * and verifying a stubbed REST response against it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JsonBenchmark {
+
+	private static final String TEMPLATE = "/ft/steps/people-response.json";
+
+	private String payload;
+	private ValidatableResponse response;
+	private UnaryOperator<DocumentContext> override;
+	private UnaryOperator<DocumentContext> replacer;
+	private String[] replacedPaths;
+
+	@Setup
+	public void setUp() {
+		payload = File.load(this, TEMPLATE);
+		Map<String, String> data = new LinkedHashMap<>();
+		data.put("name", "Leia Organa");
+		data.put("height", "150");
+		override = REST.override(data);
+		replacedPaths = new String[]{"films", "species", "vehicles", "starships", "created", "edited"};
+		replacer = REST.replacer(replacedPaths);
+		response = new ResponseBuilder()
+				.setStatusCode(200)
+				.setContentType(ContentType.JSON)
+				.setBody(payload)
+				.build()
+				.then();
+	}
+
+	@Benchmark
+	public String format() {
+		return JSON.format(payload);
+	}
+
+	@Benchmark
+	public boolean isJsonEqual() {
+		return new Matchers.IsJsonEqual<>(TEMPLATE, payload, replacer).matches(payload);
+	}
+
+	@Benchmark
+	public void verifyResponse() {
+		REST.verifyResponse(this, TEMPLATE, response, override, replacer);
+	}
+
+	@Benchmark
+	public void verifyResponseStreaming() {
+		REST.verifyResponseStreaming(this, TEMPLATE, response, override, replacedPaths);
+	}
+}
@@ -0,0 +1,55 @@
+package ft.benchmark;
+
+import ft.support.REST;
+import ft.support.StubServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency and throughput of the stub server replaying the recorded people responses,
+ * called by RestAssured from 4 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(4)
+@Fork(1)
+public class StubServerBenchmark {
+
+	private StubServer stubServer;
+	private String url;
+
+	@Setup
+	public void setUp() {
+		REST.configureClient(REST.DEFAULT_POOL_SIZE,
+				REST.DEFAULT_CONNECT_TIMEOUT_MILLIS, REST.DEFAULT_SOCKET_TIMEOUT_MILLIS);
+		stubServer = new StubServer(0, Paths.get("src/test/stub"), null);
+		stubServer.start();
+		url = stubServer.url() + "/api/people/1";
+	}
+
+	@TearDown
+	public void tearDown() {
+		stubServer.stop();
+	}
+
+	@Benchmark
+	public int get() {
+		return REST.request().get(url).statusCode();
+	}
+}
@@ -19,9 +19,136 @@ Feature: Database
       | 102 | First national        |               | 2017-12-14 12:34:56.789 |           |
       | 103 | Default customer name |               | 2016-12-31 23:59:58.123 |           |
 
+  Scenario: Load table from file
+    Given DB table customer
+    And customers from file customers.csv
+    Then there are 3 customers
+    And the customers are:
+      | id  | name                  | date_acquired | time_created            | comment             |
+      | 101 | Acme                  | 2017-12-13    | 2017-12-13 12:34:56.789 | A comment, "quoted" |
+      | 102 | First national        |               | 2017-12-14 12:34:56.789 |                     |
+      | 103 | Default customer name |               | 2016-12-31 23:59:58.123 |                     |
+
+  Scenario: Bulk load table from file
+    Given DB table customer
+    And customers bulk loaded from file customers-bulk.csv
+    Then there are 2 customers
+    And the customers are:
+      | id  | name           | date_acquired | time_created            | comment             |
+      | 201 | Acme           | 2017-12-13    | 2017-12-13 12:34:56.789 | A comment, "quoted" |
+      | 202 | First national |               | 2017-12-14 12:34:56.789 |                     |
+
+  @snapshot:customers
+  Scenario: Take or restore snapshot
+    Given DB table customer
+    And customers:
+      | id  | name |
+      | 105 | Acme |
+    And setup step "customers" counted
+    Then the customers are:
+      | id  | name |
+      | 105 | Acme |
+    And setup step "customers" has run once
+
+  @snapshot:customers
+  Scenario: Take or restore the same snapshot
+    Given DB table customer
+    And customers:
+      | id  | name |
+      | 105 | Acme |
+    And setup step "customers" counted
+    Then the customers are:
+      | id  | name |
+      | 105 | Acme |
+    And setup step "customers" has run once
+
+  Scenario: Reject a setup differing from the snapshot
+    Given DB table customer
+    And DB snapshot customers-108 taken after inserting customers 108 and 109
+    Then starting from DB snapshot customers-108 and only inserting customer 108 is rejected
+    And the verification reports "differ from DB snapshot customers-108"
+
+  Scenario: Report table differences
+    Given DB table customer
+    And 3 generated customers
+    Then the customers are not:
+      | id | name       |
+      | 1  | Customer 1 |
+      | 2  | Customer X |
+      | 3  | Customer 3 |
+    And the verification reports "No match found for expected row:\n{id=2, name=Customer X}"
+    And the verification reports "Best match:\n{id=2, name=Customer 2}"
+    And the verification reports "name expected: Customer X, but was: Customer 2"
+    And the customers are not:
+      | id | name       |
+      | 1  | Customer 1 |
+      | 2  | Customer 2 |
+    And the verification reports "Unexpected row(s):\n{id=3, name=Customer 3}\n\n"
+
+  Scenario: Verify table streamed
+    Given DB table customer
+    And 250 generated customers
+    Then the customers streamed are the 250 generated customers
+    And the customers streamed are not:
+      | id  | name         |
+      | 251 | Customer 251 |
+    And the verification reports "Actual DB data (first 100 of 250 rows)"
+
+  Scenario: Insert and verify table while inserting and verifying it
+    Given DB table customer
+    And 3 generated customers, each inserting another one with an id 1000 higher
+    Then there are 6 customers
+    And the customers are, also when verified again while reading them:
+      | id   | name       |
+      | 1    | Customer 1 |
+      | 2    | Customer 2 |
+      | 3    | Customer 3 |
+      | 1001 | Customer 1 |
+      | 1002 | Customer 2 |
+      | 1003 | Customer 3 |
+
+  Scenario: Await rows inserted by another thread
+    Given DB table customer
+    When customer 106 is inserted by another thread after 200 ms
+    Then the customers become:
+      | id  | name |
+      | 106 | Acme |
+    When customer 107 is inserted by another thread after 200 ms
+    Then the customer count query returns 2
+
+  Scenario: Await times out
+    Given DB table customer
+    And DB await timeout of 300 ms
+    Then the customer count query does not return 1
+    And the verification reports "Unexpected result of query select count(*) from"
+
   Scenario: Get next value from sequence
     Given DB sequence
     When I get next sequence value
     Then the sequence value is 1
     When I get next sequence value
     Then the sequence value is 2
+
+  Scenario: Get next values from sequence prefetched in blocks
+    Given DB sequence
+    When I get next sequence value prefetched in blocks of 10
+    Then the sequence value is 1
+    When I get next sequence value prefetched in blocks of 10
+    Then the sequence value is 2
+    When I get next sequence value
+    Then the sequence value is 11
+    And getting next sequence value in blocks of 1 is rejected
+
+  @rollback
+  Scenario: Roll back scenario changes
+    Given DB table customer shared by scenarios
+    And customers:
+      | id  | name | date_acquired |
+      | 104 | Acme | 2017-12-13    |
+    Then there are 1 customers
+    And the customers are:
+      | id  | name | date_acquired |
+      | 104 | Acme | 2017-12-13    |
+    And another connection sees 0 customers
+    When the scenario changes are rolled back
+    Then there are 0 customers
@@ -15,3 +15,70 @@ Feature: REST
     And the response is:
       | name  | height | mass | hair_color | skin_color | eye_color | birth_year | gender | homeworld                       | url                            |
       | C-3PO | 167    | 75   | n/a        | gold       | yellow    | 112BBY     | n/a    | https://swapi.co/api/planets/1/ | https://swapi.co/api/people/2/ |
+
+  Scenario: Get Star Wars character exactly
+    When I get character by id 1
+    Then the response is the expected character
+
+  Scenario: Reject a response with a changed value
+    Given the expected character has $.name set to "Han Solo"
+    When I get character by id 1
+    Then the response is not the expected character, differing at "$.name"
+
+  Scenario: Reject a response with an extra field
+    Given the expected character has no $.gender
+    When I get character by id 1
+    Then the response is not the expected character, differing at "$.gender"
+
+  Scenario: Reject a response with an extra array element
+    Given the expected character has no $.films[4]
+    When I get character by id 1
+    Then the response is not the expected character, differing at "$.films[4]"
+
+  Scenario: Get Star Wars character streamed
+    When I get character by id 1 streamed
+    Then the response status is 200
+    And the response streamed is:
+      | name           | height | mass | hair_color | skin_color | eye_color | birth_year | gender | homeworld                       | url                            |
+      | Luke Skywalker | 172    | 77   | blond      | fair       | blue      | 19BBY      | male   | https://swapi.co/api/planets/1/ | https://swapi.co/api/people/1/ |
+
+  Scenario: Reject a streamed response with a changed value
+    Given the expected character has $.name set to "Han Solo"
+    When I get character by id 1 streamed
+    Then the response streamed is not the expected character, differing at "$.name"
+
+  Scenario: Reject a streamed response with an extra field
+    Given the expected character has no $.gender
+    When I get character by id 1 streamed
+    Then the response streamed is not the expected character, differing at "$.gender"
+
+  Scenario: Reject a streamed response with an extra array element
+    Given the expected character has no $.films[4]
+    When I get character by id 1 streamed
+    Then the response streamed is not the expected character, differing at "$.films[4]"
+
+  Scenario: Skip only the ignored values of a streamed response
+    Given the expected character ignores $.films[*]
+    And the expected character has $.films[2] set to "changed"
+    When I get character by id 1 streamed
+    Then the response streamed is the expected character
+    Given the expected character has $.species[0] set to "changed"
+    When I get character by id 1 streamed
+    Then the response streamed is not the expected character, differing at "$.species[0]"
+
+  Scenario: Reject content after a streamed response
+    When I get character by id 1 with trailing content streamed
+    Then the response streamed is not the expected character, differing at "$"
+
+  Scenario: Get Star Wars characters concurrently
+    Then the characters by id are:
+      | id | name           | height | mass | hair_color | skin_color | eye_color | birth_year | gender | homeworld                       | url                            |
+      | 1  | Luke Skywalker | 172    | 77   | blond      | fair       | blue      | 19BBY      | male   | https://swapi.co/api/planets/1/ | https://swapi.co/api/people/1/ |
+      | 2  | C-3PO          | 167    | 75   | n/a        | gold       | yellow    | 112BBY     | n/a    | https://swapi.co/api/planets/1/ | https://swapi.co/api/people/2/ |
+
+  Scenario: Get Star Wars character under load
+    When I get character by id 1 with 10 concurrent requests for 1 second
+    Then the error rate is at most 0%
+    And the p95 latency is at most 1000 ms
+    And the p99 latency is at most 2000 ms
+    And the throughput is at least 10 requests per second
@@ -6,7 +6,7 @@ import org.junit.runner.RunWith;
 
 @RunWith(Cucumber.class)
 @CucumberOptions(
-		plugin = {"pretty", "html:target/cucumber"},
+		plugin = {"pretty", "html:target/cucumber", "ft.support.MetricsPlugin:target/metrics.json"},
 		features = "src/test/features"
 )
 public class RunCucumberTest {
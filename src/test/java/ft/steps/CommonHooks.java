@@ -1,13 +1,28 @@
 package ft.steps;
 
+import cucumber.api.Scenario;
+import cucumber.api.java.After;
 import cucumber.api.java.Before;
 import ft.support.DB;
+import ft.support.REST;
 
 import java.time.ZoneOffset;
 import java.util.TimeZone;
 
 public class CommonHooks {
 
+	/**
+	 * Tag of scenarios whose DB changes are rolled back at the end of the scenario
+	 * instead of being deleted.
+	 */
+	public static final String ROLLBACK_TAG = "@rollback";
+	/**
+	 * Prefix of a tag naming the DB snapshot the scenario starts from, e.g. {@code @snapshot:customers}.
+	 * The first scenario with the tag takes the snapshot after its last setup step,
+	 * the other ones restore it and skip the setup steps.
+	 */
+	public static final String SNAPSHOT_TAG_PREFIX = "@snapshot:";
+
 	static {
 		TimeZone.setDefault(TimeZone.getTimeZone(ZoneOffset.UTC));
 		// Set timezone for h2 database
@@ -15,8 +30,29 @@ public class CommonHooks {
 	}
 
 	@Before
-	public void beforeEachScenario() {
+	public void beforeEachScenario(Scenario scenario) {
 		DB.initializeIfRequired();
+		REST.initializeIfRequired();
 //        DB.delete("customer");
+		// before the snapshot setup, as using the DB outside of a setup step ends the setup
+		if (scenario.getSourceTagNames().contains(ROLLBACK_TAG)) {
+			DB.beginTransaction();
+		}
+		scenario.getSourceTagNames().stream()
+				.filter(tag -> tag.startsWith(SNAPSHOT_TAG_PREFIX))
+				.findFirst()
+				.ifPresent(tag -> DB.beginSnapshotSetup(tag.substring(SNAPSHOT_TAG_PREFIX.length())));
+	}
+
+	@After
+	public void afterEachScenario(Scenario scenario) {
+		try {
+			DB.endSnapshotSetup();
+		} finally {
+			if (scenario.getSourceTagNames().contains(ROLLBACK_TAG)) {
+				DB.rollbackTransaction();
+			}
+			DB.releaseConnection();
+		}
 	}
 }
@@ -12,12 +12,26 @@ public class DbSequenceSteps implements En {
 		Given("^DB sequence$", () -> {
 			DB.executeUpdate("drop sequence seq_1 if exists");
 			DB.executeUpdate("create sequence seq_1");
+			DB.resetSequence("seq_1");
 		});
 
 		When("^I get next sequence value$", () -> {
 			sequenceValue = DB.nextSequenceValue("seq_1");
 		});
 
+		When("^I get next sequence value prefetched in blocks of (\\d+)$", (Integer blockSize) -> {
+			sequenceValue = DB.sequence("seq_1", blockSize).next();
+		});
+
+		Then("^getting next sequence value in blocks of (\\d+) is rejected$", (Integer blockSize) -> {
+			try {
+				DB.sequence("seq_1", blockSize);
+			} catch (IllegalArgumentException e) {
+				return;
+			}
+			Assert.fail("Sequence seq_1 was expected to reject blocks of " + blockSize);
+		});
+
 		Then("^the sequence value is (\\d+)$", (Long expectedValue) -> {
 			Assert.assertEquals(expectedValue, sequenceValue);
 		});
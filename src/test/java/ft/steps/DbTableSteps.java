@@ -4,38 +4,294 @@ import cucumber.api.DataTable;
 import cucumber.api.java8.En;
 import ft.support.DB;
 import ft.support.Data;
+import ft.support.File;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DbTableSteps implements En {
 
 	private static final String TABLE = "customer";
+	/**
+	 * Not cloned, so the rows of a scenario are only removed by a rollback.
+	 * Named apart from the cloned table, as a {@code customer} table in the base schema
+	 * may hold rows left by earlier runs against the file database.
+	 */
+	private static final String SHARED_TABLE = "customer_shared";
+	private static final String COLUMNS = "(" +
+			" id bigint not null primary key," +
+			" name varchar2(100) not null," +
+			" date_acquired date," +
+			" time_created timestamp not null," +
+			" comment varchar2(100)" +
+			")";
+	/**
+	 * Runs of counted setup steps in this JVM, to tell a setup skipped by a snapshot from one run.
+	 */
+	private static final Map<String, AtomicInteger> setupRuns = new ConcurrentHashMap<>();
+	private String verificationError;
+	private Thread insertThread;
+	private volatile Throwable insertError;
+	private Long awaitTimeoutMillis;
+	private String table = TABLE;
 
 	public DbTableSteps() {
-		Given("^DB table customer$", () -> {
-			DB.executeUpdate("drop table customer if exists");
-			DB.executeUpdate("create table customer (" +
-					" id bigint not null primary key," +
-					" name varchar2(100) not null," +
-					" date_acquired date," +
-					" time_created timestamp not null," +
-					" comment varchar2(100)" +
-					")");
+		Given("^DB table customer$", () -> DB.setup("DB table customer", () -> {
+			DB.createTemplate(TABLE, () -> {
+				DB.executeUpdate("drop table customer if exists");
+				DB.executeUpdate("create table customer " + COLUMNS);
+			});
+			DB.useTemplate(TABLE);
+		}));
+
+		Given("^DB table customer shared by scenarios$", () -> {
+			// in the h2-mem profile it is already created by db/h2-bootstrap.sql
+			table = SHARED_TABLE;
+			DB.executeUpdate("create table if not exists " + SHARED_TABLE + " " + COLUMNS);
+			Assert.assertEquals("Rows of shared table " + SHARED_TABLE, 0L, (long) DB.selectCount(SHARED_TABLE));
 		});
 
 		Given("^customers:$", (DataTable dataTable) -> {
-			DB.insert(TABLE,
-					DB.RowsBuilder.from(Data.asMaps(dataTable))
-							.with("name", "Default customer name")
-							.with("time_created", "2016-12-31T23:59:58.123Z")
-							.asDate("date_acquired")
-							.asTimestamp("time_created")
-							.build());
+			List<Map<String, String>> data = Data.asMaps(dataTable);
+			DB.setup("customers: " + data, () ->
+					DB.insert(table, customers(DB.RowsBuilder.from(data)).build()));
+		});
+
+		Given("^customers from file (.+)$", (String fileName) -> {
+			DB.setup("customers from file " + fileName, () ->
+					DB.load(table, File.path(this, fileName), customers(DB.RowsBuilder.create())));
+		});
+
+		Given("^customers bulk loaded from file (.+)$", (String fileName) -> {
+			DB.setup("customers bulk loaded from file " + fileName, () ->
+					DB.bulkLoad(table, File.path(this, fileName)));
+		});
+
+		Given("^setup step \"([^\"]*)\" counted$", (String name) -> {
+			DB.setup("counted " + name, () ->
+					setupRuns.computeIfAbsent(name, key -> new AtomicInteger()).incrementAndGet());
+		});
+
+		Given("^DB snapshot (\\S+) taken after inserting customers (\\d+) and (\\d+)$",
+				(String name, Long firstId, Long secondId) -> {
+					DB.beginSnapshotSetup(name);
+					insertCustomer(firstId);
+					insertCustomer(secondId);
+					DB.endSnapshotSetup();
+				});
+
+		Given("^(\\d+) generated customers$", (Integer count) -> {
+			DB.setup(count + " generated customers", () ->
+					DB.insert(table, customers(DB.RowsBuilder.from(generatedCustomers(count))).build()));
+		});
+
+		Given("^(\\d+) generated customers, each inserting another one with an id (\\d+) higher$",
+				(Integer count, Long offset) -> {
+			List<Map<String, Object>> rows = customers(DB.RowsBuilder.from(generatedCustomers(count))).build();
+			DB.setup(count + " generated customers inserting others", () ->
+					// the same table and columns, so the same SQL as the batch being inserted
+					DB.insert(table, rows.stream().peek(row -> {
+						Map<String, Object> other = new LinkedHashMap<>(row);
+						other.put("id", Long.parseLong(row.get("id").toString()) + offset);
+						DB.insert(table, Collections.singletonList(other));
+					})));
+		});
+
+		When("^customer (\\d+) is inserted by another thread after (\\d+) ms$", (Long id, Long delayMillis) -> {
+			// the other thread does not use the clone of this one unless told
+			String sql = "insert into " + DB.schema() + "." + table
+					+ " (id, name, time_created) values (?, 'Acme', current_timestamp)";
+			insertThread = new Thread(() -> {
+				try {
+					Thread.sleep(delayMillis);
+					DB.executeUpdate(sql, Collections.<Object>singletonList(id));
+				} catch (Throwable e) {
+					insertError = e;
+				} finally {
+					DB.releaseConnection();
+				}
+			}, "insert " + id);
+			insertThread.start();
+		});
+
+		When("^the scenario changes are rolled back$", () -> {
+			DB.rollbackTransaction();
+			// the @rollback transaction goes on until the end of the scenario
+			DB.beginTransaction();
+		});
+
+		Given("^DB await timeout of (\\d+) ms$", (Long timeoutMillis) -> {
+			awaitTimeoutMillis = DB.awaitTimeoutMillis;
+			DB.awaitTimeoutMillis = timeoutMillis;
+		});
+
+		After(() -> {
+			if (awaitTimeoutMillis != null) {
+				DB.awaitTimeoutMillis = awaitTimeoutMillis;
+			}
 		});
 
 		Then("^there are (\\d+) customers$",
-				(Integer count) -> DB.awaitRowCount(TABLE, count));
+				(Integer count) -> DB.awaitRowCount(table, count));
+
+		Then("^another connection sees (\\d+) customers$", (Long count) -> {
+			Assert.assertEquals("Customers seen by another connection", count, countByAnotherConnection());
+		});
 
 		Then("^the customers are:$", (DataTable dataTable) -> {
-			DB.verify(TABLE, Data.asMaps(dataTable));
+			DB.verify(table, Data.asMaps(dataTable));
+		});
+
+		Then("^the customers are not:$", (DataTable dataTable) -> {
+			try {
+				DB.verify(table, Data.asMaps(dataTable));
+			} catch (AssertionError e) {
+				verificationError = e.getMessage();
+				return;
+			}
+			Assert.fail("The customers were expected to differ from " + Data.asMaps(dataTable));
+		});
+
+		Then("^the customers are, also when verified again while reading them:$", (DataTable dataTable) -> {
+			List<Map<String, String>> expectedData = Data.asMaps(dataTable);
+			AtomicBoolean verifiedAgain = new AtomicBoolean();
+			DB.verify(table, expectedData, row -> {
+				if (verifiedAgain.compareAndSet(false, true)) {
+					// the same query as the one being read
+					DB.verify(table, expectedData);
+				}
+				return row;
+			});
+		});
+
+		Then("^the customers become:$", (DataTable dataTable) -> {
+			DB.awaitVerify(table, Data.asMaps(dataTable));
+			joinInsertThread();
 		});
+
+		Then("^the customer count query returns (\\d+)$", (Long count) -> {
+			DB.awaitScalarQuery(countSql(), actual -> ((Number) actual).longValue() == count);
+			joinInsertThread();
+		});
+
+		Then("^the customer count query does not return (\\d+)$", (Long count) -> {
+			try {
+				DB.awaitScalarQuery(countSql(), actual -> ((Number) actual).longValue() == count);
+			} catch (AssertionError e) {
+				verificationError = e.getMessage();
+				return;
+			}
+			Assert.fail("The customer count was expected not to become " + count);
+		});
+
+		Then("^the customers streamed are:$", (DataTable dataTable) -> {
+			DB.verifyStreaming(table, Data.asMaps(dataTable));
+		});
+
+		Then("^the customers streamed are the (\\d+) generated customers$", (Integer count) -> {
+			DB.verifyStreaming(table, generatedCustomers(count));
+		});
+
+		Then("^the customers streamed are not:$", (DataTable dataTable) -> {
+			try {
+				DB.verifyStreaming(table, Data.asMaps(dataTable));
+			} catch (AssertionError e) {
+				verificationError = e.getMessage();
+				return;
+			}
+			Assert.fail("The customers were expected to differ from " + Data.asMaps(dataTable));
+		});
+
+		Then("^setup step \"([^\"]*)\" has run once$", (String name) -> {
+			Assert.assertEquals("Runs of setup step " + name, 1, setupRuns.get(name).get());
+		});
+
+		Then("^starting from DB snapshot (\\S+) and only inserting customer (\\d+) is rejected$",
+				(String name, Long id) -> {
+					DB.beginSnapshotSetup(name);
+					insertCustomer(id);
+					try {
+						DB.endSnapshotSetup();
+					} catch (RuntimeException e) {
+						verificationError = e.getMessage();
+						return;
+					}
+					Assert.fail("The setup was expected to differ from DB snapshot " + name);
+				});
+
+		Then("^the verification reports \"([^\"]*)\"$", (String message) -> {
+			// \n stands for a line break, so that the text can span the lines of the report
+			Assert.assertThat(verificationError, CoreMatchers.containsString(message.replace("\\n", "\n")));
+		});
+	}
+
+	private void joinInsertThread() {
+		try {
+			insertThread.join();
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted waiting for the insert by another thread.", e);
+		}
+		if (insertError != null) {
+			throw new AssertionError("Insert by another thread failed.", insertError);
+		}
+	}
+
+	private static void insertCustomer(Long id) {
+		DB.setup("customer " + id, () -> DB.insert(TABLE, customers(DB.RowsBuilder.from(
+				Collections.singletonList(Collections.singletonMap("id", String.valueOf(id))))).build()));
+	}
+
+	/**
+	 * Count the customers in another thread, which uses another connection of the pool.
+	 */
+	private Long countByAnotherConnection() {
+		FutureTask<Long> count = new FutureTask<>(() -> {
+			try {
+				return DB.selectCount(table);
+			} finally {
+				DB.releaseConnection();
+			}
+		});
+		new Thread(count, "count customers").start();
+		try {
+			return count.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted counting customers by another connection.", e);
+		} catch (ExecutionException e) {
+			throw new AssertionError("Counting customers by another connection failed.", e.getCause());
+		}
+	}
+
+	private String countSql() {
+		return "select count(*) from " + DB.schema() + "." + table;
+	}
+
+	private static List<Map<String, String>> generatedCustomers(int count) {
+		List<Map<String, String>> data = new ArrayList<>(count);
+		for (int i = 1; i <= count; i++) {
+			Map<String, String> row = new LinkedHashMap<>();
+			row.put("id", String.valueOf(i));
+			row.put("name", "Customer " + i);
+			data.add(row);
+		}
+		return data;
+	}
+
+	private static DB.RowsBuilder customers(DB.RowsBuilder rowsBuilder) {
+		return rowsBuilder
+				.with("name", "Default customer name")
+				.with("time_created", "2016-12-31T23:59:58.123Z")
+				.asDate("date_acquired")
+				.asTimestamp("time_created");
 	}
 }
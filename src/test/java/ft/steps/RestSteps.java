@@ -1,24 +1,77 @@
 package ft.steps;
 
+import com.jayway.jsonpath.DocumentContext;
 import cucumber.api.DataTable;
+import cucumber.api.Scenario;
 import cucumber.api.java8.En;
 import ft.support.Data;
+import ft.support.Load;
 import ft.support.REST;
-import io.restassured.RestAssured;
 import io.restassured.response.ValidatableResponse;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
 
 public class RestSteps implements En {
 
-	public static final String API = "https://swapi.co/api";
 	private static ValidatableResponse response;
+	private static Load.Result load;
+	private static Scenario scenario;
+	private static UnaryOperator<DocumentContext> expectedChanges;
+	private static List<String> ignoredPaths;
 
 	public RestSteps() {
+		Before((Scenario scenario) -> {
+			RestSteps.scenario = scenario;
+			expectedChanges = REST.override();
+			ignoredPaths = new ArrayList<>();
+		});
+
+		Given("^the expected character has (\\S+) set to \"([^\"]*)\"$", (String path, String value) -> {
+			changeExpected(ctx -> ctx.set(REST.compile(path), value));
+		});
+
+		Given("^the expected character has no (\\S+)$", (String path) -> {
+			changeExpected(ctx -> ctx.delete(REST.compile(path)));
+		});
+
+		Given("^the expected character ignores (\\S+)$", (String path) -> {
+			ignoredPaths.add(path);
+		});
+
 		When("^I get character by id (\\d+)$", (Integer id) -> {
-			response = RestAssured
-					.get(API + "/people/" + id)
+			response = REST.request()
+					.get(REST.api + "/people/" + id)
 					.then();
 		});
 
+		When("^I get character by id (\\d+) streamed$", (Integer id) -> {
+			response = REST.streamingRequest()
+					.get(REST.api + "/people/" + id)
+					.then();
+		});
+
+		When("^I get character by id (\\d+) with trailing content streamed$", (Integer id) -> {
+			// recorded only for the stub server
+			response = REST.streamingRequest()
+					.get(REST.api + "/people/" + id + "/trailing-content")
+					.then();
+		});
+
+		When("^I get character by id (\\d+) with (\\d+) concurrent requests for (\\d+) seconds?$",
+				(Integer id, Integer concurrency, Integer seconds) -> {
+					String url = REST.api + "/people/" + id;
+					load = Load.run(concurrency, seconds * 1000L,
+							() -> REST.request().get(url).statusCode() < 400);
+					scenario.write("Load of " + url + ": " + load
+							+ ", " + REST.getConnectionsOpened() + " connections opened");
+				});
+
 		Then("^the response status is (\\d+)$", (Integer status) -> {
 			response.statusCode(status);
 		});
@@ -29,5 +82,77 @@ public class RestSteps implements En {
 					REST.replacer("films", "species", "vehicles", "starships", "created", "edited")
 			);
 		});
+
+		Then("^the response is the expected character$", () -> {
+			REST.verifyResponse(this, "luke-response.json", response, expectedChanges);
+		});
+
+		Then("^the response is not the expected character, differing at \"([^\"]*)\"$", (String path) -> {
+			assertDifference(path, () ->
+					REST.verifyResponse(this, "luke-response.json", response, expectedChanges));
+		});
+
+		Then("^the response streamed is:$", (DataTable dataTable) -> {
+			REST.verifyResponseStreaming(this, "people-response.json", response,
+					REST.override(Data.asRow(dataTable)),
+					"films", "species", "vehicles", "starships", "created", "edited"
+			);
+		});
+
+		Then("^the response streamed is the expected character$", () -> {
+			REST.verifyResponseStreaming(this, "luke-response.json", response, expectedChanges,
+					ignoredPaths.toArray(new String[0]));
+		});
+
+		Then("^the response streamed is not the expected character, differing at \"([^\"]*)\"$", (String path) -> {
+			assertDifference(path, () ->
+					REST.verifyResponseStreaming(this, "luke-response.json", response, expectedChanges,
+							ignoredPaths.toArray(new String[0])));
+		});
+
+		Then("^the characters by id are:$", (DataTable dataTable) -> {
+			REST.verifyResponses(this, "people-response.json", 10, Data.asMaps(dataTable),
+					row -> REST.request()
+							.get(REST.api + "/people/" + row.get("id"))
+							.then()
+							.statusCode(200),
+					row -> {
+						Map<String, String> data = new LinkedHashMap<>(row);
+						data.remove("id");
+						return REST.override(data);
+					},
+					REST.replacer("films", "species", "vehicles", "starships", "created", "edited")
+			);
+		});
+
+		Then("^the error rate is at most (\\d+(?:\\.\\d+)?)%$", (Double errorRate) -> {
+			if (load.errorRate() > errorRate) {
+				throw new AssertionError("Error rate of " + load, load.getLastError());
+			}
+		});
+
+		Then("^the p(\\d+(?:\\.\\d+)?) latency is at most (\\d+) ms$", (Double percentile, Integer millis) -> {
+			Assert.assertTrue("p" + percentile + " latency of " + load,
+					load.latencyMillis(percentile) <= millis);
+		});
+
+		Then("^the throughput is at least (\\d+) requests per second$", (Integer throughput) -> {
+			Assert.assertTrue("Throughput of " + load, load.throughput() >= throughput);
+		});
+	}
+
+	private static void changeExpected(UnaryOperator<DocumentContext> change) {
+		UnaryOperator<DocumentContext> previousChanges = expectedChanges;
+		expectedChanges = ctx -> change.apply(previousChanges.apply(ctx));
+	}
+
+	private static void assertDifference(String path, Runnable verification) {
+		try {
+			verification.run();
+		} catch (AssertionError e) {
+			Assert.assertThat(e.getMessage(), CoreMatchers.containsString("first difference at " + path + " "));
+			return;
+		}
+		Assert.fail("The response was expected to differ from the template at " + path);
 	}
 }
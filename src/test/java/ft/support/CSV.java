@@ -0,0 +1,175 @@
+package ft.support;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class CSV {
+
+	/**
+	 * Read the header line of a CSV file.
+	 *
+	 * @param file CSV file
+	 * @return column names
+	 */
+	public static List<String> readHeader(Path file) {
+		try (BufferedReader reader = open(file)) {
+			List<String> header = readRecord(reader);
+			if (header == null) {
+				throw new RuntimeException("File " + file + " is empty. Header line expected.");
+			}
+			return header;
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot read file " + file + ".", e);
+		}
+	}
+
+	/**
+	 * Read rows of a CSV file with a header line lazily, one row at a time.
+	 * <p>
+	 * Values are separated by commas and may be enclosed in double quotes,
+	 * double quotes inside quoted values are doubled.
+	 * Close the stream to close the file.
+	 *
+	 * @param file CSV file
+	 * @return rows as maps of column name to value
+	 */
+	public static Stream<Map<String, String>> read(Path file) {
+		BufferedReader reader = open(file);
+		RowIterator rows;
+		try {
+			rows = new RowIterator(file, reader);
+		} catch (RuntimeException e) {
+			try {
+				reader.close();
+			} catch (IOException closeError) {
+				e.addSuppressed(closeError);
+			}
+			throw e;
+		}
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL),
+				false)
+				.onClose(() -> {
+					try {
+						reader.close();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+	}
+
+	private static BufferedReader open(Path file) {
+		try {
+			return Files.newBufferedReader(file, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot read file " + file + ". Does it exist?", e);
+		}
+	}
+
+	/**
+	 * Read the next record, skipping blank lines.
+	 *
+	 * @return values of the record, null at the end of the file
+	 */
+	private static List<String> readRecord(BufferedReader reader) throws IOException {
+		List<String> values = new ArrayList<>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		int c;
+		while ((c = reader.read()) != -1) {
+			if (quoted) {
+				if (c == '"') {
+					reader.mark(1);
+					if (reader.read() == '"') {
+						value.append('"');
+					} else {
+						reader.reset();
+						quoted = false;
+					}
+				} else {
+					value.append((char) c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				values.add(value.toString());
+				value.setLength(0);
+			} else if (c == '\n') {
+				if (values.isEmpty() && value.length() == 0) {
+					continue;
+				}
+				break;
+			} else if (c != '\r') {
+				value.append((char) c);
+			}
+		}
+		if (c == -1 && values.isEmpty() && value.length() == 0) {
+			return null;
+		}
+		values.add(value.toString());
+		return values;
+	}
+
+	private static class RowIterator implements Iterator<Map<String, String>> {
+		private final Path file;
+		private final BufferedReader reader;
+		private final List<String> header;
+		private List<String> next;
+		private int line = 1;
+
+		private RowIterator(Path file, BufferedReader reader) {
+			this.file = file;
+			this.reader = reader;
+			header = readNext();
+			if (header == null) {
+				throw new RuntimeException("File " + file + " is empty. Header line expected.");
+			}
+			next = readNext();
+		}
+
+		private List<String> readNext() {
+			try {
+				return readRecord(reader);
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot read file " + file + ".", e);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map<String, String> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			line++;
+			if (next.size() != header.size()) {
+				throw new RuntimeException("Record " + line + " of file " + file + " has "
+						+ next.size() + " values, but the header has " + header.size() + ".");
+			}
+			Map<String, String> row = new LinkedHashMap<>();
+			for (int i = 0; i < header.size(); i++) {
+				row.put(header.get(i), next.get(i));
+			}
+			next = readNext();
+			return row;
+		}
+	}
+}
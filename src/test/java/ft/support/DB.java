@@ -7,37 +7,108 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class DB {
 
 	public static final String DEFAULT_PROPERTIES_FILENAME =
 			"target/test-classes/feature-tests.properties";
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final int DEFAULT_POOL_TIMEOUT_SECONDS = 30;
+	public static final long DEFAULT_AWAIT_TIMEOUT_MILLIS = 10000L;
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	public static final int DEFAULT_VERIFY_SAMPLE_SIZE = 100;
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 100;
+	public static final int DEFAULT_SEQUENCE_BLOCK_SIZE = 100;
+	private static final long AWAIT_INITIAL_DELAY_MILLIS = 2L;
+	private static final long AWAIT_MAX_DELAY_MILLIS = 200L;
+	private static final Pattern DDL = Pattern.compile(
+			"^\\s*(create|drop|alter|truncate|rename|comment|grant|revoke)\\b", Pattern.CASE_INSENSITIVE);
 	public static String driverClassName, url, userName, password, schema, dialect;
-	private static Connection connection;
-	private static boolean initialized = false;
+	/**
+	 * Id of the parallel worker running this JVM, empty when running serially.
+	 * Each worker gets its own schema to avoid collisions with the other workers.
+	 */
+	public static String worker = "";
+	/**
+	 * SQL scripts run once on the first connection, e.g. to create the tables shared by scenarios.
+	 */
+	public static List<String> bootstrapScripts = Collections.emptyList();
+	public static int batchSize = DEFAULT_BATCH_SIZE;
+	public static int poolSize = Runtime.getRuntime().availableProcessors();
+	public static int poolTimeoutSeconds = DEFAULT_POOL_TIMEOUT_SECONDS;
+	public static long awaitTimeoutMillis = DEFAULT_AWAIT_TIMEOUT_MILLIS;
+	public static int fetchSize = DEFAULT_FETCH_SIZE;
+	public static int verifySampleSize = DEFAULT_VERIFY_SAMPLE_SIZE;
+	public static int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+	public static int sequenceBlockSize = DEFAULT_SEQUENCE_BLOCK_SIZE;
+	private static final Object changes = new Object();
+	private static long changeCount = 0;
+	private static final ThreadLocal<Connection> threadConnection = new ThreadLocal<>();
+	private static final ThreadLocal<String> threadSchema = new ThreadLocal<>();
+	private static final ThreadLocal<Map<SchemaScript, SchemaClone>> threadClones =
+			ThreadLocal.withInitial(HashMap::new);
+	private static final Set<String> clonedSchemas = ConcurrentHashMap.newKeySet();
+	private static final Map<String, SchemaScript> templates = new ConcurrentHashMap<>();
+	private static final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+	private static final ThreadLocal<SnapshotSetup> snapshotSetup = new ThreadLocal<>();
+	private static final AtomicInteger clonedSchemaCount = new AtomicInteger();
+	private static final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+	private static final AtomicLong statementCacheHits = new AtomicLong();
+	private static final AtomicLong statementCacheMisses = new AtomicLong();
+	private static final Map<String, SequenceAllocator> sequenceAllocators =
+			new ConcurrentHashMap<>();
+	private static ConnectionPool pool;
+	private static volatile boolean initialized = false;
+	private static volatile boolean bootstrapped = false;
 
 	public static void initializeIfRequired() {
 		initializeIfRequired(DEFAULT_PROPERTIES_FILENAME);
@@ -45,16 +116,22 @@ public class DB {
 
 	public static void initializeIfRequired(String propertiesFileName) {
 		if (!initialized) {
-			Runtime.getRuntime().addShutdownHook(new Thread(DB::shutdown));
-			loadProperties(propertiesFileName);
-			openConnection();
-			initialized = true;
+			synchronized (DB.class) {
+				if (!initialized) {
+					Runtime.getRuntime().addShutdownHook(new Thread(DB::shutdown));
+					loadProperties(propertiesFileName);
+					pool = new ConnectionPool(poolSize, poolTimeoutSeconds);
+					initialized = true;
+				}
+			}
 		}
 	}
 
-	public static void shutdown() {
-		closeConnection();
+	public static synchronized void shutdown() {
+		dropClonedSchemas();
+		closeConnections();
 		initialized = false;
+		bootstrapped = false;
 	}
 
 	private static void loadProperties(String fileName) {
@@ -74,6 +151,27 @@ public class DB {
 				password = (String) properties.get("database.password");
 				schema = (String) properties.get("database.schema");
 				dialect = (String) properties.get("database.dialect");
+				batchSize = positive("database.batchSize", Integer.parseInt(properties.getProperty(
+						"database.batchSize", String.valueOf(DEFAULT_BATCH_SIZE))));
+				poolSize = positive("database.poolSize", Integer.parseInt(properties.getProperty(
+						"database.poolSize", String.valueOf(poolSize))));
+				poolTimeoutSeconds = positive("database.poolTimeoutSeconds", Integer.parseInt(
+						properties.getProperty("database.poolTimeoutSeconds",
+								String.valueOf(DEFAULT_POOL_TIMEOUT_SECONDS))));
+				awaitTimeoutMillis = positive("database.awaitTimeoutMillis", Long.parseLong(
+						properties.getProperty("database.awaitTimeoutMillis",
+								String.valueOf(DEFAULT_AWAIT_TIMEOUT_MILLIS))));
+				fetchSize = positive("database.fetchSize", Integer.parseInt(properties.getProperty(
+						"database.fetchSize", String.valueOf(DEFAULT_FETCH_SIZE))));
+				verifySampleSize = positive("database.verifySampleSize", Integer.parseInt(
+						properties.getProperty("database.verifySampleSize",
+								String.valueOf(DEFAULT_VERIFY_SAMPLE_SIZE))));
+				statementCacheSize = positive("database.statementCacheSize", Integer.parseInt(
+						properties.getProperty("database.statementCacheSize",
+								String.valueOf(DEFAULT_STATEMENT_CACHE_SIZE))));
+				sequenceBlockSize = positive("database.sequenceBlockSize", Integer.parseInt(
+						properties.getProperty("database.sequenceBlockSize",
+								String.valueOf(DEFAULT_SEQUENCE_BLOCK_SIZE))));
 
 				Objects.requireNonNull(driverClassName, "Driver class name is required.");
 				Objects.requireNonNull(url, "Database URL is required.");
@@ -81,16 +179,75 @@ public class DB {
 				Objects.requireNonNull(password, "Database password is required.");
 				Objects.requireNonNull(schema, "Database schema is required.");
 				Objects.requireNonNull(dialect, "Database dialect is required.");
+
+				bootstrapScripts = Arrays.stream(
+						properties.getProperty("database.bootstrapScripts", "").split(","))
+						.map(String::trim)
+						.filter(script -> !script.isEmpty())
+						.collect(Collectors.toList());
+
+				worker = System.getProperty("database.worker",
+						properties.getProperty("database.worker", ""));
+				if (!worker.isEmpty()) {
+					schema = schema + "_W" + worker;
+				}
 			}
 		} catch (IOException e) {
 			throw new RuntimeException("Properties file unreadable: " + fileName);
 		}
 	}
 
-	private static void openConnection() {
+	private static int positive(String property, int value) {
+		if (value < 1) {
+			throw new IllegalArgumentException(property + " must be at least 1, but is " + value + ".");
+		}
+		return value;
+	}
+
+	private static long positive(String property, long value) {
+		if (value < 1) {
+			throw new IllegalArgumentException(property + " must be at least 1, but is " + value + ".");
+		}
+		return value;
+	}
+
+	/**
+	 * Run the bootstrap scripts on the first connection used,
+	 * so that a JVM not using the DB (e.g. a parallel worker running only REST features) does not open it.
+	 * Statements in the scripts are separated by semicolons at the end of a line.
+	 */
+	private static synchronized void runBootstrapScripts(Connection connection) {
+		if (bootstrapped) {
+			return;
+		}
+		for (String script : bootstrapScripts) {
+			String content;
+			try {
+				content = new String(Files.readAllBytes(Paths.get(script)), StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot read bootstrap script " + script + ". Does it exist?", e);
+			}
+			try (Statement statement = connection.createStatement()) {
+				for (String sql : content.split(";\\s*(\\r?\\n|$)")) {
+					if (!sql.trim().isEmpty()) {
+						statement.execute(sql.trim());
+					}
+				}
+			} catch (SQLException e) {
+				throw new RuntimeException("Error executing bootstrap script " + script + ".", e);
+			}
+		}
+		bootstrapped = true;
+	}
+
+	private static Connection openConnection() {
 		try {
 			Class.forName(driverClassName);
-			connection = DriverManager.getConnection(url, userName, password);
+			Connection connection = DriverManager.getConnection(url, userName, password);
+			if (!worker.isEmpty()) {
+				setDefaultSchema(connection, schema);
+			}
+			return connection;
 		} catch (ClassNotFoundException e) {
 			throw new RuntimeException("Cannot find driver class " + driverClassName, e);
 		} catch (SQLException e) {
@@ -98,18 +255,729 @@ public class DB {
 		}
 	}
 
+	/**
+	 * Make the schema the default one for the connection,
+	 * so that unqualified DDL in steps goes there.
+	 * On H2 the schema is created if missing, on Oracle it must exist beforehand.
+	 */
+	private static void setDefaultSchema(Connection connection, String schemaName)
+			throws SQLException {
+		if (!"oracle".equals(dialect)) {
+			try (Statement statement = connection.createStatement()) {
+				statement.execute("create schema if not exists " + schemaName);
+			}
+		}
+		setSchema(connection, schemaName);
+	}
+
+	/**
+	 * Make an existing schema the default one for the connection.
+	 * Unlike creating a schema this does not commit the transaction in progress.
+	 */
+	private static void setSchema(Connection connection, String schemaName) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			if ("oracle".equals(dialect)) {
+				statement.execute("alter session set current_schema = " + schemaName);
+			} else {
+				statement.execute("set schema " + schemaName);
+			}
+		}
+	}
+
 	private static void verifyInitialized() {
-		if (connection == null) {
+		if (pool == null) {
 			throw new RuntimeException("DB is not initialized. Please initialize DB first.");
 		}
 	}
 
-	private static void closeConnection() {
+	/**
+	 * Get the connection bound to the current thread,
+	 * checking one out of the pool on first use.
+	 */
+	private static Connection connection() {
 		verifyInitialized();
+		SnapshotSetup setup = snapshotSetup.get();
+		if (setup != null && !setup.inStep && !setup.ended) {
+			// the DB is used by a step other than a setup step, so the setup has ended
+			endSetup(setup);
+		}
+		Connection connection = threadConnection.get();
+		if (connection == null) {
+			connection = pool.acquire();
+			threadConnection.set(connection);
+			if (!bootstrapped) {
+				runBootstrapScripts(connection);
+			}
+		}
+		return connection;
+	}
+
+	/**
+	 * Return the connection bound to the current thread (if any) back to the pool.
+	 * Call at the end of each scenario.
+	 */
+	public static void releaseConnection() {
+		Connection connection = threadConnection.get();
+		if (connection != null) {
+			if (threadSchema.get() != null) {
+				switchSchema(schema);
+			}
+			threadConnection.remove();
+			pool.release(connection);
+		}
+	}
+
+	/**
+	 * Start a transaction on the connection of the current thread.
+	 * All subsequent updates and inserts of the thread participate in it
+	 * until {@link #rollbackTransaction()} is called.
+	 * <p>
+	 * Note that DDL statements commit implicitly.
+	 */
+	public static void beginTransaction() {
+		try {
+			connection().setAutoCommit(false);
+		} catch (SQLException e) {
+			throw new RuntimeException("Cannot begin transaction.", e);
+		}
+	}
+
+	/**
+	 * Roll back the transaction started by {@link #beginTransaction()}
+	 * and return to auto-commit mode.
+	 */
+	public static void rollbackTransaction() {
+		Connection connection = connection();
+		try {
+			connection.rollback();
+			connection.setAutoCommit(true);
+		} catch (SQLException e) {
+			throw new RuntimeException("Cannot roll back transaction.", e);
+		}
+	}
+
+	/**
+	 * Get the schema used by the current thread.
+	 * This is {@link #schema} unless the thread switched to a schema cloned from a template.
+	 */
+	public static String schema() {
+		String current = threadSchema.get();
+		return current != null ? current : schema;
+	}
+
+	private static void switchSchema(String schemaName) {
+		try {
+			setSchema(connection(), schemaName);
+		} catch (SQLException e) {
+			throw new RuntimeException("Cannot switch to schema " + schemaName + ".", e);
+		}
+		if (schema.equals(schemaName)) {
+			threadSchema.remove();
+		} else {
+			threadSchema.set(schemaName);
+		}
+	}
+
+	private static String templateSchema(String name) {
+		return schema + "_T_" + name.toUpperCase();
+	}
+
+	private static void verifyTemplatesSupported() {
+		if ("oracle".equals(dialect)) {
+			throw new RuntimeException("Schema templates and snapshots are only supported on H2.");
+		}
+	}
+
+	/**
+	 * Create a named schema template by running the setup in a fresh schema,
+	 * unless the template has already been created by this JVM.
+	 * <p>
+	 * The setup should use unqualified names in DDL and {@link #schema()} otherwise.
+	 */
+	public static synchronized void createTemplate(String name, Runnable setup) {
+		if (templates.containsKey(name)) {
+			return;
+		}
+		verifyTemplatesSupported();
+		String templateSchema = templateSchema(name);
+		String previousSchema = schema();
+		executeStatement("drop schema if exists " + templateSchema);
+		executeStatement("create schema " + templateSchema);
+		switchSchema(templateSchema);
+		try {
+			setup.run();
+			templates.put(name, scriptSchema(templateSchema));
+		} finally {
+			switchSchema(previousSchema);
+		}
+	}
+
+	private static SchemaScript scriptSchema(String schemaName) {
+		List<String> statements = new ArrayList<>();
+		try (Statement statement = connection().createStatement()) {
+			try (ResultSet rs = statement.executeQuery(
+					"script nopasswords nosettings schema " + schemaName)) {
+				while (rs.next()) {
+					String sql = rs.getString(1);
+					if (!sql.startsWith("--") && !sql.startsWith("CREATE USER ")
+							&& !sql.startsWith("CREATE SCHEMA ")) {
+						statements.add(sql);
+					}
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Cannot script schema " + schemaName + ".", e);
+		}
+		return new SchemaScript(schemaName, statements);
+	}
+
+	/**
+	 * Use a clone of the script's schema for the current thread until the connection is released.
+	 * <p>
+	 * The clone is created by the first scenario of the thread using the script
+	 * and kept for the next ones, which get it reset to the data of the script
+	 * without running its DDL again.
+	 * The clone is re-created when a scenario changed its tables, columns or sequences,
+	 * and the changed one is dropped.
+	 * Neither the reset nor the creation commits the transaction in progress (e.g. of a {@code @rollback} scenario).
+	 */
+	private static void cloneSchema(SchemaScript script) {
+		Map<SchemaScript, SchemaClone> clones = threadClones.get();
+		SchemaClone clone = clones.get(script);
+		if (clone != null) {
+			switchSchema(clone.schema);
+			if (Metrics.time("db.clone.reset", () -> resetClone(script, clone))) {
+				return;
+			}
+		}
+		clones.put(script, Metrics.time("db.clone", () -> createClone(script)));
+		if (clone != null) {
+			dropSchemas(Collections.singleton(clone.schema));
+		}
+	}
+
+	/**
+	 * Create the clone on a connection of its own, as DDL commits the transaction in progress.
+	 */
+	private static SchemaClone createClone(SchemaScript script) {
+		String clonedSchema = schema + "_S" + clonedSchemaCount.incrementAndGet();
+		clonedSchemas.add(clonedSchema);
+		try (Connection connection = openConnection();
+		     Statement statement = connection.createStatement()) {
+			statement.execute("drop schema if exists " + clonedSchema);
+			statement.execute("create schema " + clonedSchema);
+			for (String sql : script.statements) {
+				statement.execute(script.rename(sql, clonedSchema));
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Cannot clone schema " + script.schema + ".", e);
+		}
+		switchSchema(clonedSchema);
+		return new SchemaClone(clonedSchema, schemaObjects(clonedSchema));
+	}
+
+	/**
+	 * Reset the data of a clone to the data of the script:
+	 * delete the rows of its tables, insert the rows of the script and restart its sequences.
+	 * Rows are deleted rather than truncated, as truncating commits the transaction in progress.
+	 *
+	 * @return false when the clone no longer has the objects it was created with
+	 */
+	private static boolean resetClone(SchemaScript script, SchemaClone clone) {
+		if (!schemaObjects(clone.schema).equals(clone.objects)) {
+			return false;
+		}
+		try (Statement statement = connection().createStatement()) {
+			List<String> tables = script.tables.stream()
+					.map(table -> script.rename(table, clone.schema))
+					.collect(Collectors.toList());
+			if (script.foreignKeys) {
+				for (String table : tables) {
+					statement.execute("alter table " + table + " set referential_integrity false");
+				}
+			}
+			for (String table : tables) {
+				statement.execute("delete from " + table);
+			}
+			for (String sql : script.inserts) {
+				statement.execute(script.rename(sql, clone.schema));
+			}
+			for (Map.Entry<String, Long> sequence : script.sequences.entrySet()) {
+				statement.execute("alter sequence " + script.rename(sequence.getKey(), clone.schema)
+						+ " restart with " + sequence.getValue());
+			}
+			if (script.foreignKeys) {
+				for (String table : tables) {
+					statement.execute("alter table " + table + " set referential_integrity true nocheck");
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Cannot reset schema " + clone.schema + ".", e);
+		}
+		sequenceAllocators.keySet().removeIf(sequence -> sequence.startsWith(clone.schema + "."));
+		signalChange();
+		return true;
+	}
+
+	/**
+	 * @return columns and sequences of the schema, to detect DDL run in a clone
+	 */
+	private static List<String> schemaObjects(String schemaName) {
+		List<String> objects = new ArrayList<>();
 		try {
-			connection.close();
+			PreparedStatement statement = prepareStatement(
+					"select table_name || '.' || column_name || ' ' || type_name || ' ' || is_nullable"
+							+ " from information_schema.columns where table_schema = ?"
+							+ " union all select sequence_name from information_schema.sequences"
+							+ " where sequence_schema = ?");
+			try {
+				statement.setString(1, schemaName);
+				statement.setString(2, schemaName);
+				try (ResultSet rs = statement.executeQuery()) {
+					while (rs.next()) {
+						objects.add(rs.getString(1));
+					}
+				}
+			} finally {
+				releaseStatement(statement);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Cannot read objects of schema " + schemaName + ".", e);
+		}
+		Collections.sort(objects);
+		return objects;
+	}
+
+	/**
+	 * Use a clone of a schema template for the current thread until the connection is released,
+	 * see {@link #cloneSchema(SchemaScript)}.
+	 */
+	public static void useTemplate(String name) {
+		SchemaScript script = templates.get(name);
+		if (script == null) {
+			throw new RuntimeException("Schema template " + name
+					+ " does not exist. Please create it first.");
+		}
+		cloneSchema(script);
+	}
+
+	/**
+	 * Objects and data of a schema as SQL statements,
+	 * with the tables, sequences and inserts needed to reset a clone of it.
+	 */
+	private static class SchemaScript {
+		private static final Pattern CREATE_TABLE = Pattern.compile("^CREATE (?:[A-Z]+ )*TABLE (\\S+)\\(");
+		private static final Pattern CREATE_SEQUENCE =
+				Pattern.compile("^CREATE SEQUENCE (\\S+) START WITH (-?\\d+)");
+		private final String schema;
+		private final Pattern schemaPrefix;
+		private final List<String> statements;
+		private final List<String> tables = new ArrayList<>();
+		private final Map<String, Long> sequences = new LinkedHashMap<>();
+		private final List<String> inserts = new ArrayList<>();
+		private final boolean foreignKeys;
+
+		private SchemaScript(String schema, List<String> statements) {
+			this.schema = schema;
+			this.statements = statements;
+			schemaPrefix = Pattern.compile("\\b" + Pattern.quote(schema) + "\\.");
+			for (String sql : statements) {
+				Matcher table = CREATE_TABLE.matcher(sql);
+				Matcher sequence = CREATE_SEQUENCE.matcher(sql);
+				if (table.find()) {
+					tables.add(table.group(1));
+				} else if (sequence.find()) {
+					sequences.put(sequence.group(1), Long.parseLong(sequence.group(2)));
+				} else if (sql.startsWith("INSERT INTO ")) {
+					inserts.add(sql);
+				}
+			}
+			foreignKeys = statements.stream().anyMatch(sql -> sql.contains(" FOREIGN KEY("));
+		}
+
+		/**
+		 * Qualify the names of the SQL by the cloned schema instead of the scripted one.
+		 */
+		private String rename(String sql, String clonedSchema) {
+			return schemaPrefix.matcher(sql).replaceAll(clonedSchema + ".");
+		}
+	}
+
+	/**
+	 * Schema cloned from a script and kept by a thread.
+	 */
+	private static class SchemaClone {
+		private final String schema;
+		private final List<String> objects;
+
+		private SchemaClone(String schema, List<String> objects) {
+			this.schema = schema;
+			this.objects = objects;
+		}
+	}
+
+	private static void dropClonedSchemas() {
+		if (clonedSchemas.isEmpty()) {
+			return;
+		}
+		dropSchemas(new ArrayList<>(clonedSchemas));
+	}
+
+	/**
+	 * Drop cloned schemas on a connection of their own, as DDL commits the transaction in progress.
+	 */
+	private static void dropSchemas(Collection<String> schemaNames) {
+		try (Connection connection = openConnection();
+		     Statement statement = connection.createStatement()) {
+			for (String schemaName : schemaNames) {
+				statement.execute("drop schema if exists " + schemaName);
+				clonedSchemas.remove(schemaName);
+			}
 		} catch (SQLException e) {
-			throw new RuntimeException("Cannot close connection.", e);
+			throw new RuntimeException("Cannot drop cloned schemas.", e);
+		}
+	}
+
+	/**
+	 * Take an in-memory snapshot of the objects and data in the current schema (H2 only).
+	 *
+	 * @param name snapshot name
+	 */
+	public static void snapshot(String name) {
+		verifyTemplatesSupported();
+		snapshots.put(name, new Snapshot(scriptSchema(schema()), Collections.emptyList()));
+	}
+
+	public static boolean hasSnapshot(String name) {
+		return snapshots.containsKey(name);
+	}
+
+	/**
+	 * Restore a snapshot into a clone of the snapshot schema
+	 * and use it for the current thread until the connection is released,
+	 * see {@link #cloneSchema(SchemaScript)}.
+	 *
+	 * @param name snapshot name
+	 */
+	public static void restore(String name) {
+		Snapshot snapshot = snapshots.get(name);
+		if (snapshot == null) {
+			throw new RuntimeException("DB snapshot " + name + " does not exist. Please take it first.");
+		}
+		cloneSchema(snapshot.script);
+	}
+
+	/**
+	 * Start the setup of a scenario starting from a named snapshot.
+	 * <p>
+	 * When the snapshot exists, it is restored and the setup steps run by {@link #setup(String, Runnable)}
+	 * are skipped. They are only checked to be the same as when the snapshot was taken.
+	 * Otherwise the setup steps are run and the snapshot is taken at the end of each of them,
+	 * so that it holds the state after the last one, without the changes made by other steps
+	 * (e.g. by the tested system). It is kept once the setup ends,
+	 * i.e. when a step other than a setup step first uses the DB, or at the end of the scenario.
+	 *
+	 * @param name snapshot name
+	 */
+	public static void beginSnapshotSetup(String name) {
+		verifyTemplatesSupported();
+		boolean restored = hasSnapshot(name);
+		if (restored) {
+			restore(name);
+		}
+		snapshotSetup.set(new SnapshotSetup(name, restored));
+	}
+
+	/**
+	 * End the setup of a scenario started by {@link #beginSnapshotSetup(String)}, if it has not ended yet.
+	 * Call at the end of each scenario.
+	 */
+	public static void endSnapshotSetup() {
+		SnapshotSetup setup = snapshotSetup.get();
+		if (setup != null) {
+			snapshotSetup.remove();
+			if (!setup.ended) {
+				endSetup(setup);
+			}
+		}
+	}
+
+	/**
+	 * Keep the snapshot taken after the last setup step,
+	 * or check that a scenario started from the snapshot ran all of them.
+	 */
+	private static void endSetup(SnapshotSetup setup) {
+		setup.ended = true;
+		if (setup.restored) {
+			List<String> snapshotSteps = snapshots.get(setup.name).setupSteps;
+			if (setup.steps.size() != snapshotSteps.size()) {
+				throw new RuntimeException("Setup steps " + setup.steps + " differ from DB snapshot "
+						+ setup.name + " taken after steps " + snapshotSteps
+						+ ". Please use a separate snapshot for this setup.");
+			}
+		} else if (!setup.failed && setup.script != null) {
+			snapshots.put(setup.name, new Snapshot(setup.script, new ArrayList<>(setup.steps)));
+		}
+	}
+
+	/**
+	 * Run a setup step, unless the scenario started from a snapshot taken after it.
+	 *
+	 * @param description description of the step including its data, used to match the snapshot
+	 * @param step        setup step
+	 */
+	public static void setup(String description, Runnable step) {
+		SnapshotSetup setup = snapshotSetup.get();
+		if (setup == null || setup.ended) {
+			step.run();
+			return;
+		}
+		setup.steps.add(description);
+		if (setup.restored) {
+			List<String> snapshotSteps = snapshots.get(setup.name).setupSteps;
+			List<String> steps = setup.steps;
+			if (steps.size() > snapshotSteps.size()
+					|| !snapshotSteps.get(steps.size() - 1).equals(description)) {
+				throw new RuntimeException("Setup step " + steps.size() + " (" + description
+						+ ") differs from DB snapshot " + setup.name + " taken after steps "
+						+ snapshotSteps + ". Please use a separate snapshot for this setup.");
+			}
+		} else {
+			setup.inStep = true;
+			try {
+				step.run();
+				setup.script = scriptSchema(schema());
+			} catch (RuntimeException | Error e) {
+				setup.failed = true;
+				throw e;
+			} finally {
+				setup.inStep = false;
+			}
+		}
+	}
+
+	private static class Snapshot {
+		private final SchemaScript script;
+		private final List<String> setupSteps;
+
+		private Snapshot(SchemaScript script, List<String> setupSteps) {
+			this.script = script;
+			this.setupSteps = setupSteps;
+		}
+	}
+
+	private static class SnapshotSetup {
+		private final String name;
+		private final boolean restored;
+		private final List<String> steps;
+		private SchemaScript script;
+		private boolean inStep = false;
+		private boolean ended = false;
+		private boolean failed = false;
+
+		private SnapshotSetup(String name, boolean restored) {
+			this.name = name;
+			this.restored = restored;
+			steps = new ArrayList<>();
+		}
+	}
+
+	private static void closeConnections() {
+		verifyInitialized();
+		threadConnection.remove();
+		statementCaches.clear();
+		pool.close();
+	}
+
+	private static PreparedStatement prepareStatement(String sql) throws SQLException {
+		return prepareStatement(connection(), sql);
+	}
+
+	/**
+	 * Get a prepared statement for the SQL from the statement cache of the connection,
+	 * preparing it on a cache miss.
+	 * The statement is pinned in the cache until it is released by {@link #releaseStatement(PreparedStatement)},
+	 * so it is not evicted while in use, e.g. by a DB call from a row converter reading its result set.
+	 * The statement must not be closed by the caller.
+	 * <p>
+	 * Unqualified names are resolved in the default schema when preparing,
+	 * so the statements are cached per schema.
+	 */
+	private static PreparedStatement prepareStatement(Connection connection, String sql)
+			throws SQLException {
+		StatementCache cache = statementCaches.computeIfAbsent(connection,
+				key -> new StatementCache(statementCacheSize));
+		String key = schema() + ":" + sql;
+		PreparedStatement cached = cache.get(key);
+		if (cached != null && !cached.isClosed() && !cache.isPinned(cached)) {
+			statementCacheHits.incrementAndGet();
+			cached.clearParameters();
+			cached.clearBatch();
+			cache.pin(cached);
+			return cached;
+		}
+		statementCacheMisses.incrementAndGet();
+		long start = Metrics.start();
+		PreparedStatement statement = connection.prepareStatement(sql);
+		Metrics.stop("db.prepare", start);
+		if (cached != null && !cached.isClosed()) {
+			// in use by an outer call, e.g. a batch being inserted or a result set being read
+			cache.addUncached(statement);
+			return statement;
+		}
+		// pinned first, otherwise it is the one evicted when the other statements are in use
+		cache.pin(statement);
+		cache.put(key, statement);
+		return statement;
+	}
+
+	/**
+	 * Unpin a statement got from {@link #prepareStatement(Connection, String)},
+	 * so that it can be evicted from the cache,
+	 * or close it if it was prepared uncached because the cached one was in use.
+	 */
+	private static void releaseStatement(PreparedStatement statement) throws SQLException {
+		StatementCache cache = statementCaches.get(statement.getConnection());
+		if (cache != null) {
+			cache.release(statement);
+		}
+	}
+
+	public static long getStatementCacheHits() {
+		return statementCacheHits.get();
+	}
+
+	public static long getStatementCacheMisses() {
+		return statementCacheMisses.get();
+	}
+
+	/**
+	 * Prepared statements of a connection keyed by schema and SQL,
+	 * closing the least recently used statements not in use when the capacity is exceeded.
+	 * While more statements than the capacity are in use (e.g. nested queries),
+	 * the cache grows beyond the capacity and shrinks back as they are released.
+	 * A statement in use is not shared: a nested call with the same SQL gets an uncached statement,
+	 * closed when released.
+	 */
+	private static class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+		private final Map<PreparedStatement, Integer> pins = new IdentityHashMap<>();
+		private final Set<PreparedStatement> uncached = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		private StatementCache(int capacity) {
+			super(16, 0.75f, true);
+			positive("statement cache size", capacity);
+			this.capacity = capacity;
+		}
+
+		private void pin(PreparedStatement statement) {
+			pins.merge(statement, 1, Integer::sum);
+		}
+
+		private boolean isPinned(PreparedStatement statement) {
+			return pins.containsKey(statement);
+		}
+
+		private void addUncached(PreparedStatement statement) {
+			uncached.add(statement);
+		}
+
+		private void release(PreparedStatement statement) throws SQLException {
+			if (uncached.remove(statement)) {
+				statement.close();
+				return;
+			}
+			pins.computeIfPresent(statement, (key, count) -> count > 1 ? count - 1 : null);
+			evict();
+		}
+
+		@Override
+		public PreparedStatement put(String key, PreparedStatement statement) {
+			PreparedStatement previous = super.put(key, statement);
+			evict();
+			return previous;
+		}
+
+		private void evict() {
+			Iterator<PreparedStatement> statements = values().iterator();
+			while (size() > capacity && statements.hasNext()) {
+				PreparedStatement statement = statements.next();
+				if (!pins.containsKey(statement)) {
+					statements.remove();
+					try {
+						statement.close();
+					} catch (SQLException e) {
+						throw new RuntimeException("Cannot close prepared statement.", e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Bounded pool of connections, opened lazily up to the pool size.
+	 */
+	private static class ConnectionPool {
+		private final int size;
+		private final int timeoutSeconds;
+		private final BlockingDeque<Connection> idle;
+		private final List<Connection> opened;
+
+		private ConnectionPool(int size, int timeoutSeconds) {
+			this.size = size;
+			this.timeoutSeconds = timeoutSeconds;
+			idle = new LinkedBlockingDeque<>();
+			opened = new ArrayList<>();
+		}
+
+		private Connection acquire() {
+			Connection connection = idle.pollFirst();
+			if (connection != null) {
+				return connection;
+			}
+			synchronized (this) {
+				if (opened.size() < size) {
+					connection = openConnection();
+					opened.add(connection);
+					return connection;
+				}
+			}
+			try {
+				connection = idle.pollFirst(timeoutSeconds, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Interrupted waiting for a DB connection.", e);
+			}
+			if (connection == null) {
+				throw new RuntimeException("No DB connection available within "
+						+ timeoutSeconds + " seconds. All " + size + " connections are in use.");
+			}
+			return connection;
+		}
+
+		private void release(Connection connection) {
+			try {
+				if (!connection.getAutoCommit()) {
+					connection.rollback();
+					connection.setAutoCommit(true);
+				}
+			} catch (SQLException e) {
+				throw new RuntimeException("Cannot reset connection.", e);
+			}
+			idle.offerFirst(connection);
+		}
+
+		private synchronized void close() {
+			try {
+				for (Connection connection : opened) {
+					connection.close();
+				}
+			} catch (SQLException e) {
+				throw new RuntimeException("Cannot close connection.", e);
+			} finally {
+				opened.clear();
+				idle.clear();
+			}
 		}
 	}
 
@@ -146,8 +1014,8 @@ public class DB {
 		}
 	}
 
-	private static Map<String, Object> removeEmptyStrings(Map<String, Object> row) {
-		Map<String, Object> mappedRow = new LinkedHashMap<>();
+	private static <T> Map<String, T> removeEmptyStrings(Map<String, T> row) {
+		Map<String, T> mappedRow = new LinkedHashMap<>();
 		row.forEach((key, value) -> {
 			if (!"".equals(value)) {
 				mappedRow.put(key, value);
@@ -160,16 +1028,46 @@ public class DB {
 		executeUpdate(sql, null);
 	}
 
+	/**
+	 * Execute an update by a cached prepared statement, see {@link #prepareStatement(Connection, String)}.
+	 * DDL without parameters is executed by {@link #executeStatement(String)}.
+	 */
 	public static void executeUpdate(String sql, Collection<Object> parameters) {
-		verifyInitialized();
-		try (PreparedStatement statement = connection.prepareStatement(sql)) {
-			if (parameters != null) {
-				int index = 1;
-				for (Object paramValue : parameters) {
-					setParameter(statement, index++, paramValue);
+		if (parameters == null && DDL.matcher(sql).find()) {
+			executeStatement(sql);
+			return;
+		}
+		try {
+			PreparedStatement statement = prepareStatement(sql);
+			try {
+				if (parameters != null) {
+					int index = 1;
+					for (Object paramValue : parameters) {
+						setParameter(statement, index++, paramValue);
+					}
 				}
+				long start = Metrics.start();
+				statement.executeUpdate();
+				Metrics.stop("db.update", start);
+			} finally {
+				releaseStatement(statement);
 			}
-			statement.executeUpdate();
+			signalChange();
+		} catch (SQLException e) {
+			throw new RuntimeException("Error executing DB update.", e);
+		}
+	}
+
+	/**
+	 * Execute SQL run once, e.g. DDL, by a plain statement,
+	 * so that it does not take the place of the repeated statements in the statement cache.
+	 */
+	private static void executeStatement(String sql) {
+		try (Statement statement = connection().createStatement()) {
+			long start = Metrics.start();
+			statement.execute(sql);
+			Metrics.stop("db.update", start);
+			signalChange();
 		} catch (SQLException e) {
 			throw new RuntimeException("Error executing DB update.", e);
 		}
@@ -177,32 +1075,174 @@ public class DB {
 
 	public static void delete(String... tables) {
 		for (String table : tables) {
-			String sql = "delete from " + schema + "." + table;
+			String sql = "delete from " + schema() + "." + table;
 			executeUpdate(sql);
 		}
 	}
 
-	public static void insert(String table, Map<String, Object> row) {
-		Map<String, Object> nonEmptyRow = removeEmptyStrings(row);
-		String sql = "insert into " + schema + "." + table
-				+ " (" + String.join(",", nonEmptyRow.keySet()) + ")"
+	private static String insertSql(String table, Collection<String> columns) {
+		return "insert into " + schema() + "." + table
+				+ " (" + String.join(",", columns) + ")"
 				+ " values ("
-				+ String.join(",", Collections.nCopies(nonEmptyRow.size(), "?"))
+				+ String.join(",", Collections.nCopies(columns.size(), "?"))
 				+ ")";
-		executeUpdate(sql, nonEmptyRow.values());
+	}
+
+	public static void insert(String table, Map<String, Object> row) {
+		Map<String, Object> nonEmptyRow = removeEmptyStrings(row);
+		executeUpdate(insertSql(table, nonEmptyRow.keySet()), nonEmptyRow.values());
 	}
 
 	public static void insert(String table, List<Map<String, Object>> rows) {
-		for (Map<String, Object> row : rows) {
-			insert(table, row);
+		insert(table, rows.stream());
+	}
+
+	/**
+	 * Insert rows using JDBC batches in a single transaction,
+	 * or in the transaction in progress (see {@link #beginTransaction()}).
+	 * <p>
+	 * Consecutive rows with the same set of non-empty columns share a prepared statement
+	 * executed in batches of {@link #batchSize} rows. The pending batch is executed
+	 * when the columns change, so the rows are inserted in their order (e.g. parents before children).
+	 * The rows are consumed as they come, so the stream may be backed by a file.
+	 */
+	public static void insert(String table, Stream<Map<String, Object>> rows) {
+		Connection connection = connection();
+		try {
+			// otherwise participate in the transaction in progress
+			boolean autoCommit = connection.getAutoCommit();
+			if (autoCommit) {
+				connection.setAutoCommit(false);
+			}
+			try {
+				insertBatches(connection, table, rows.iterator());
+				if (autoCommit) {
+					connection.commit();
+					signalChange();
+				}
+			} catch (SQLException | RuntimeException e) {
+				if (autoCommit) {
+					connection.rollback();
+				}
+				throw e;
+			} finally {
+				if (autoCommit) {
+					connection.setAutoCommit(true);
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Error executing DB batch insert.", e);
+		}
+	}
+
+	private static void insertBatches(
+			Connection connection, String table, Iterator<Map<String, Object>> rows)
+			throws SQLException {
+		InsertBatch batch = null;
+		try {
+			while (rows.hasNext()) {
+				Map<String, Object> nonEmptyRow = removeEmptyStrings(rows.next());
+				if (batch == null || !batch.columns.equals(nonEmptyRow.keySet())) {
+					if (batch != null) {
+						batch.execute();
+						releaseStatement(batch.statement);
+						batch = null;
+					}
+					batch = new InsertBatch(connection, table, nonEmptyRow.keySet());
+				}
+				batch.add(nonEmptyRow);
+			}
+			if (batch != null) {
+				batch.execute();
+			}
+		} finally {
+			if (batch != null) {
+				releaseStatement(batch.statement);
+			}
+		}
+	}
+
+	/**
+	 * Pending batch of inserts of rows with the same columns.
+	 */
+	private static class InsertBatch {
+		private final Set<String> columns;
+		private final PreparedStatement statement;
+		private int size = 0;
+
+		private InsertBatch(Connection connection, String table, Collection<String> columns)
+				throws SQLException {
+			this.columns = new LinkedHashSet<>(columns);
+			statement = prepareStatement(connection, insertSql(table, this.columns));
+		}
+
+		private void add(Map<String, Object> row) throws SQLException {
+			int index = 1;
+			for (String column : columns) {
+				setParameter(statement, index++, row.get(column));
+			}
+			statement.addBatch();
+			if (++size == batchSize) {
+				execute();
+			}
+		}
+
+		private void execute() throws SQLException {
+			if (size > 0) {
+				long start = Metrics.start();
+				statement.executeBatch();
+				Metrics.stop("db.batch", start);
+				Metrics.count("db.rows.inserted", size);
+				size = 0;
+			}
 		}
 	}
 
-	private static Map<String, String> queryRow(Collection<String> columns, ResultSet rs)
+	/**
+	 * Load a CSV file with a header line of column names into the table as it is,
+	 * the fastest way to load large fixtures.
+	 * <p>
+	 * Unlike {@link #load(String, Path, RowsBuilder)} no defaults or conversions are applied:
+	 * the file must have all the required columns, with values in the format of the database
+	 * (e.g. {@code 2017-12-13 12:34:56.789} for a timestamp). Empty values are loaded as NULL.
+	 * On H2 the file is read by the database itself using CSVREAD,
+	 * elsewhere the rows are inserted in batches.
+	 *
+	 * @param table table name
+	 * @param file  CSV file
+	 */
+	public static void bulkLoad(String table, Path file) {
+		if ("oracle".equals(dialect)) {
+			load(table, file, RowsBuilder.create());
+			return;
+		}
+		List<String> columns = CSV.readHeader(file);
+		String path = file.toAbsolutePath().toString().replace("'", "''");
+		executeStatement("insert into " + schema() + "." + table
+				+ " (" + String.join(",", columns) + ")"
+				+ " select * from csvread('" + path + "', null, 'charset=UTF-8')");
+	}
+
+	/**
+	 * Load a CSV file with a header line of column names into the table,
+	 * mapping each row by the rows builder (defaults, conversions) as it is read.
+	 * Empty values are treated as missing, so that the defaults apply to them.
+	 *
+	 * @param table       table name
+	 * @param file        CSV file
+	 * @param rowsBuilder rows builder, its data is ignored
+	 */
+	public static void load(String table, Path file, RowsBuilder rowsBuilder) {
+		try (Stream<Map<String, String>> rows = CSV.read(file)) {
+			insert(table, rows.map(DB::removeEmptyStrings).map(rowsBuilder::build));
+		}
+	}
+
+	private static Map<String, String> queryRow(Columns columns, ResultSet rs)
 			throws SQLException {
-		Map<String, String> row = new LinkedHashMap<>();
-		for (String column : columns) {
-			Object value = rs.getObject(column);
+		String[] values = new String[columns.names.length];
+		for (int i = 0; i < values.length; i++) {
+			Object value = rs.getObject(i + 1);
 			String valueString;
 			if (value instanceof BigDecimal) {
 				valueString = ((BigDecimal) value).stripTrailingZeros().toPlainString();
@@ -211,45 +1251,78 @@ public class DB {
 			} else {
 				valueString = String.valueOf(value);
 			}
-			row.put(column, valueString);
+			values[i] = valueString;
 		}
-		return Collections.unmodifiableMap(row);
+		return new Row(columns, values);
 	}
 
-	private static List<Map<String, String>> executeRowsQuery(
+	/**
+	 * Execute a query selecting the columns in the given order
+	 * and pass each converted row to the consumer.
+	 */
+	private static void executeRowsQuery(
 			String sql,
 			Collection<String> columns,
-			UnaryOperator<Map<String, String>> rowConverter) {
-		verifyInitialized();
-		List<Map<String, String>> rows = new ArrayList<>();
-		try (PreparedStatement statement = connection.prepareStatement(sql)) {
-			try (ResultSet rs = statement.executeQuery()) {
-				while (rs.next()) {
-					Map<String, String> row = queryRow(columns, rs);
-					Map<String, String> convertedRow = rowConverter.apply(row);
-					rows.add(convertedRow);
+			UnaryOperator<Map<String, String>> rowConverter,
+			Consumer<Map<String, String>> rowConsumer) {
+		Columns resultColumns = new Columns(columns);
+		long rowCount = 0;
+		try {
+			PreparedStatement statement = prepareStatement(sql);
+			try {
+				statement.setFetchSize(fetchSize);
+				long start = Metrics.start();
+				try (ResultSet rs = statement.executeQuery()) {
+					Metrics.stop("db.query", start);
+					while (rs.next()) {
+						Map<String, String> row = queryRow(resultColumns, rs);
+						Map<String, String> convertedRow = rowConverter.apply(row);
+						rowConsumer.accept(convertedRow);
+						rowCount++;
+					}
 				}
+			} finally {
+				releaseStatement(statement);
 			}
 		} catch (SQLException e) {
 			throw new RuntimeException("Error executing DB query.", e);
+		} finally {
+			Metrics.count("db.rows.read", rowCount);
 		}
+	}
+
+	private static List<Map<String, String>> executeRowsQuery(
+			String sql,
+			Collection<String> columns,
+			UnaryOperator<Map<String, String>> rowConverter) {
+		List<Map<String, String>> rows = new ArrayList<>();
+		executeRowsQuery(sql, columns, rowConverter, rows::add);
 		return rows;
 	}
 
+	private static String selectSql(String table, Collection<String> columns) {
+		return "select " + String.join(", ", columns) + " from " + schema() + "." + table;
+	}
+
 	private static List<Map<String, String>> select(
 			String table,
 			Collection<String> columns,
 			UnaryOperator<Map<String, String>> rowConverter) {
-		String sql = "select " + String.join(", ", columns) + " from " + schema + "." + table;
-		return executeRowsQuery(sql, columns, rowConverter);
+		return executeRowsQuery(selectSql(table, columns), columns, rowConverter);
 	}
 
 	public static Object executeScalarQuery(String sql) {
-		verifyInitialized();
-		try (PreparedStatement statement = connection.prepareStatement(sql)) {
-			try (ResultSet rs = statement.executeQuery()) {
-				rs.next();
-				return rs.getObject(1);
+		try {
+			PreparedStatement statement = prepareStatement(sql);
+			try {
+				long start = Metrics.start();
+				try (ResultSet rs = statement.executeQuery()) {
+					Metrics.stop("db.query", start);
+					rs.next();
+					return rs.getObject(1);
+				}
+			} finally {
+				releaseStatement(statement);
 			}
 		} catch (SQLException e) {
 			throw new RuntimeException("Error executing DB query.", e);
@@ -257,40 +1330,198 @@ public class DB {
 	}
 
 	public static Long selectCount(String table) {
-		String sql = "select count(*) from " + schema + "." + table;
+		String sql = "select count(*) from " + schema() + "." + table;
 		return ((Number) executeScalarQuery(sql)).longValue();
 	}
 
 	public static Long nextSequenceValue(String sequence) {
+		return nextQualifiedSequenceValue(schema() + "." + sequence);
+	}
+
+	private static Long nextQualifiedSequenceValue(String qualifiedSequence) {
 		String sql;
 		if ("oracle".equals(dialect)) {
-			sql = "select " + DB.schema + "." + sequence + ".nextval from dual";
+			sql = "select " + qualifiedSequence + ".nextval from dual";
 		} else {
-			sql = "select nextval('" + DB.schema + "." + sequence + "')";
+			sql = "select nextval('" + qualifiedSequence + "')";
 		}
 		return ((Number) executeScalarQuery(sql)).longValue();
 	}
 
-	public static void awaitRowCount(String table, int count) {
-		int repeat = 0;
-		long actual;
+	/**
+	 * Get the next values from the sequence using a single query.
+	 *
+	 * @param sequence sequence name
+	 * @param count    number of values to get
+	 * @return values in ascending order
+	 */
+	public static List<Long> nextSequenceValues(String sequence, int count) {
+		return nextQualifiedSequenceValues(schema() + "." + sequence, count);
+	}
+
+	private static List<Long> nextQualifiedSequenceValues(String qualifiedSequence, int count) {
+		String sql;
+		if ("oracle".equals(dialect)) {
+			sql = "select " + qualifiedSequence + ".nextval from dual"
+					+ " connect by level <= " + count;
+		} else {
+			sql = "select nextval('" + qualifiedSequence + "')"
+					+ " from system_range(1, " + count + ")";
+		}
+		List<Long> values = new ArrayList<>(count);
 		try {
-			do {
-				if (repeat > 0) {
-					Thread.sleep(200L);
+			PreparedStatement statement = prepareStatement(sql);
+			try {
+				long start = Metrics.start();
+				try (ResultSet rs = statement.executeQuery()) {
+					Metrics.stop("db.query", start);
+					while (rs.next()) {
+						values.add(rs.getLong(1));
+					}
+				}
+			} finally {
+				releaseStatement(statement);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("Error executing DB query.", e);
+		}
+		Collections.sort(values);
+		return values;
+	}
+
+	/**
+	 * Get the allocator of the sequence in the current schema,
+	 * prefetching values in blocks of {@link #sequenceBlockSize} when it is created.
+	 * An existing allocator is returned whatever its block size.
+	 */
+	public static SequenceAllocator sequence(String sequence) {
+		return sequenceAllocators.computeIfAbsent(schema() + "." + sequence,
+				qualifiedSequence -> new SequenceAllocator(qualifiedSequence, sequenceBlockSize));
+	}
+
+	/**
+	 * Get the allocator of the sequence in the current schema.
+	 * A block size of 1 fetches the values strictly one by one.
+	 *
+	 * @throws IllegalArgumentException when the block size is less than 1
+	 *                                  or differs from the block size of the existing allocator,
+	 *                                  see {@link #resetSequence(String)}
+	 */
+	public static SequenceAllocator sequence(String sequence, int blockSize) {
+		SequenceAllocator allocator = sequenceAllocators.computeIfAbsent(schema() + "." + sequence,
+				qualifiedSequence -> new SequenceAllocator(qualifiedSequence, blockSize));
+		if (allocator.blockSize != blockSize) {
+			throw new IllegalArgumentException("Sequence " + allocator.sequence
+					+ " is already allocated in blocks of " + allocator.blockSize
+					+ ", cannot allocate it in blocks of " + blockSize + ".");
+		}
+		return allocator;
+	}
+
+	/**
+	 * Discard the values prefetched from the sequence in the current schema,
+	 * e.g. when the sequence gets re-created.
+	 */
+	public static void resetSequence(String sequence) {
+		sequenceAllocators.remove(schema() + "." + sequence);
+	}
+
+	/**
+	 * Wake up threads awaiting a DB change made through this class.
+	 */
+	private static void signalChange() {
+		synchronized (changes) {
+			changeCount++;
+			changes.notifyAll();
+		}
+	}
+
+	private static void awaitChange(long changeCountBefore, long timeoutMillis)
+			throws InterruptedException {
+		synchronized (changes) {
+			if (changeCount == changeCountBefore) {
+				changes.wait(timeoutMillis);
+			}
+		}
+	}
+
+	/**
+	 * Wait until the condition holds, for at most {@link #awaitTimeoutMillis}.
+	 * <p>
+	 * The condition is re-evaluated with an exponential backoff starting at a few milliseconds,
+	 * or as soon as another thread changes the data through this class.
+	 *
+	 * @param condition condition to await
+	 * @return whether the condition holds
+	 */
+	public static boolean await(BooleanSupplier condition) {
+		long deadline = System.currentTimeMillis() + awaitTimeoutMillis;
+		long delay = AWAIT_INITIAL_DELAY_MILLIS;
+		try {
+			while (true) {
+				long changeCountBefore;
+				synchronized (changes) {
+					changeCountBefore = changeCount;
+				}
+				long start = Metrics.start();
+				boolean satisfied = condition.getAsBoolean();
+				Metrics.stop("db.await.poll", start);
+				if (satisfied) {
+					return true;
 				}
-				actual = selectCount(table);
-				repeat++;
-			} while (actual != count && repeat < 50);
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				awaitChange(changeCountBefore, Math.min(delay, remaining));
+				delay = Math.min(delay * 2, AWAIT_MAX_DELAY_MILLIS);
+			}
 		} catch (InterruptedException e) {
-			throw new RuntimeException("Error awaiting table row count.", e);
+			throw new RuntimeException("Error awaiting DB condition.", e);
 		}
-		if (actual != count) {
-			Assert.fail("Row count in table " + table + " expected " + count
-					+ ", but was " + actual + ".");
+	}
+
+	/**
+	 * Wait until the assertion passes, see {@link #await(BooleanSupplier)}.
+	 * Fails with the last assertion error when the timeout elapses.
+	 *
+	 * @param assertion assertion to await
+	 */
+	public static void awaitAssertion(Runnable assertion) {
+		AssertionError[] lastError = new AssertionError[1];
+		boolean passed = await(() -> {
+			try {
+				assertion.run();
+				return true;
+			} catch (AssertionError e) {
+				lastError[0] = e;
+				return false;
+			}
+		});
+		if (!passed) {
+			throw lastError[0];
 		}
 	}
 
+	public static void awaitRowCount(String table, int count) {
+		awaitAssertion(() -> {
+			long actual = selectCount(table);
+			if (actual != count) {
+				Assert.fail("Row count in table " + table + " expected " + count
+						+ ", but was " + actual + ".");
+			}
+		});
+	}
+
+	public static void awaitScalarQuery(String sql, Predicate<Object> predicate) {
+		awaitAssertion(() -> {
+			Object actual = executeScalarQuery(sql);
+			if (!predicate.test(actual)) {
+				Assert.fail("Unexpected result of query " + sql + ": " + actual + ".");
+			}
+		});
+	}
+
 	private static List<String> getNotMatchingColumns(
 			Map<String, String> expectedRow, Map<String, String> actualRow) {
 		List<String> notMatchingColumns = new ArrayList<>();
@@ -319,12 +1550,6 @@ public class DB {
 		return bestMatch;
 	}
 
-	private static boolean dataRowMatches(
-			Map<String, String> expectedRow, Map<String, String> actualRow) {
-		List<String> notMatchingColumns = getNotMatchingColumns(expectedRow, actualRow);
-		return notMatchingColumns.size() == 0;
-	}
-
 	private static void appendActualDBData(
 			StringBuilder sb, List<Map<String, String>> actualData) {
 		sb.append("\n Actual DB data:\n");
@@ -358,34 +1583,34 @@ public class DB {
 			String table,
 			List<Map<String, String>> expectedData,
 			UnaryOperator<Map<String, String>> rowConverter) {
+		Metrics.time("db.verify", () -> verifyTable(table, expectedData, rowConverter));
+	}
+
+	private static void verifyTable(
+			String table,
+			List<Map<String, String>> expectedData,
+			UnaryOperator<Map<String, String>> rowConverter) {
 		if (expectedData.size() == 0) {
 			Assert.assertEquals("Row count in table " + table,
 					new Long(0), selectCount(table));
 			return;
 		}
 
-		Set<String> columns = expectedData.get(0).keySet();
+		List<String> columns = new ArrayList<>(expectedData.get(0).keySet());
 		List<Map<String, String>> expectedDataNulls = emptyStringsAsNulls(expectedData);
 		List<Map<String, String>> actualData = select(table, columns, rowConverter);
-		List<Map<String, String>> actualDataToMatch = new ArrayList<>(actualData);
+		RowIndex actualDataToMatch = new RowIndex(columns, actualData);
 		for (Map<String, String> expectedRow : expectedDataNulls) {
-			boolean matchFound = false;
-			if (actualDataToMatch.size() == 0) {
+			if (actualDataToMatch.unmatchedCount() == 0) {
 				StringBuilder sb = new StringBuilder();
 				sb.append("Missing row:\n");
 				sb.append(expectedRow);
 				appendActualDBData(sb, actualData);
 				Assert.fail(sb.toString());
 			}
-			for (Map<String, String> actualRow : actualDataToMatch) {
-				if (dataRowMatches(expectedRow, actualRow)) {
-					matchFound = true;
-					actualDataToMatch.remove(actualRow);
-					break;
-				}
-			}
-			if (!matchFound) {
-				Map<String, String> bestMatch = getBestMatch(expectedRow, actualDataToMatch);
+			if (!actualDataToMatch.match(expectedRow)) {
+				Map<String, String> bestMatch =
+						getBestMatch(expectedRow, actualDataToMatch.unmatched());
 				List<String> notMatchingColumns = getNotMatchingColumns(expectedRow, bestMatch);
 				StringBuilder sb = new StringBuilder();
 				sb.append("No match found for expected row:\n");
@@ -405,10 +1630,10 @@ public class DB {
 				Assert.fail(sb.toString());
 			}
 		}
-		if (actualDataToMatch.size() > 0) {
+		if (actualDataToMatch.unmatchedCount() > 0) {
 			StringBuilder sb = new StringBuilder();
 			sb.append("Unexpected row(s):\n");
-			for (Map<String, String> actualRow : actualDataToMatch) {
+			for (Map<String, String> actualRow : actualDataToMatch.unmatched()) {
 				sb.append(actualRow);
 				sb.append("\n");
 			}
@@ -417,6 +1642,279 @@ public class DB {
 		}
 	}
 
+	/**
+	 * Multiset of rows indexed by the values of the verified columns,
+	 * so that finding an exactly matching row is a single hash lookup.
+	 */
+	private static class RowIndex {
+		private final List<String> columns;
+		private final List<Map<String, String>> rows;
+		private final Map<List<String>, Deque<Map<String, String>>> rowsByKey;
+		private final Set<Map<String, String>> matched;
+
+		private RowIndex(List<String> columns, List<Map<String, String>> rows) {
+			this.columns = columns;
+			this.rows = rows;
+			rowsByKey = new HashMap<>();
+			matched = Collections.newSetFromMap(new IdentityHashMap<>());
+			for (Map<String, String> row : rows) {
+				rowsByKey.computeIfAbsent(key(row), key -> new ArrayDeque<>()).add(row);
+			}
+		}
+
+		private List<String> key(Map<String, String> row) {
+			List<String> key = new ArrayList<>(columns.size());
+			for (String column : columns) {
+				key.add(row.get(column));
+			}
+			return key;
+		}
+
+		private boolean match(Map<String, String> expectedRow) {
+			Deque<Map<String, String>> candidates = rowsByKey.get(key(expectedRow));
+			if (candidates == null || candidates.isEmpty()) {
+				return false;
+			}
+			matched.add(candidates.poll());
+			return true;
+		}
+
+		private int unmatchedCount() {
+			return rows.size() - matched.size();
+		}
+
+		private List<Map<String, String>> unmatched() {
+			return rows.stream()
+					.filter(row -> !matched.contains(row))
+					.collect(Collectors.toList());
+		}
+	}
+
+	public static void verifyStreaming(String table, List<Map<String, String>> expectedData) {
+		verifyStreaming(table, expectedData, UnaryOperator.identity());
+	}
+
+	/**
+	 * Verify table data like {@link #verify(String, List, UnaryOperator)},
+	 * but stream the table instead of loading it into memory.
+	 * <p>
+	 * Only actual rows not matching any expected row are kept,
+	 * plus the first {@link #verifySampleSize} rows to be reported as actual DB data on failure.
+	 */
+	public static void verifyStreaming(
+			String table,
+			List<Map<String, String>> expectedData,
+			UnaryOperator<Map<String, String>> rowConverter) {
+		Metrics.time("db.verify", () -> verifyTableStreaming(table, expectedData, rowConverter));
+	}
+
+	private static void verifyTableStreaming(
+			String table,
+			List<Map<String, String>> expectedData,
+			UnaryOperator<Map<String, String>> rowConverter) {
+		if (expectedData.size() == 0) {
+			Assert.assertEquals("Row count in table " + table,
+					0L, (long) selectCount(table));
+			return;
+		}
+
+		List<String> columns = new ArrayList<>(expectedData.get(0).keySet());
+		RowIndex expectedDataToMatch = new RowIndex(columns, emptyStringsAsNulls(expectedData));
+		List<Map<String, String>> unexpectedData = new ArrayList<>();
+		List<Map<String, String>> actualDataSample = new ArrayList<>();
+		long[] actualRowCount = new long[1];
+		executeRowsQuery(selectSql(table, columns), columns, rowConverter, actualRow -> {
+			if (actualRowCount[0]++ < verifySampleSize) {
+				actualDataSample.add(actualRow);
+			}
+			if (!expectedDataToMatch.match(actualRow)) {
+				unexpectedData.add(actualRow);
+			}
+		});
+
+		for (Map<String, String> expectedRow : expectedDataToMatch.unmatched()) {
+			StringBuilder sb = new StringBuilder();
+			if (unexpectedData.isEmpty()) {
+				sb.append("Missing row:\n");
+				sb.append(expectedRow);
+			} else {
+				Map<String, String> bestMatch = getBestMatch(expectedRow, unexpectedData);
+				List<String> notMatchingColumns = getNotMatchingColumns(expectedRow, bestMatch);
+				sb.append("No match found for expected row:\n");
+				sb.append(expectedRow);
+				sb.append("\n Best match:\n");
+				sb.append(bestMatch);
+				sb.append("\n Differences:");
+				for (String column : notMatchingColumns) {
+					sb.append("\n  ");
+					sb.append(column);
+					sb.append(" expected: ");
+					sb.append(expectedRow.get(column));
+					sb.append(", but was: ");
+					sb.append(bestMatch.get(column));
+				}
+			}
+			appendActualDBDataSample(sb, actualDataSample, actualRowCount[0]);
+			Assert.fail(sb.toString());
+		}
+		if (unexpectedData.size() > 0) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("Unexpected row(s):\n");
+			for (Map<String, String> actualRow : unexpectedData) {
+				sb.append(actualRow);
+				sb.append("\n");
+			}
+			appendActualDBDataSample(sb, actualDataSample, actualRowCount[0]);
+			Assert.fail(sb.toString());
+		}
+	}
+
+	private static void appendActualDBDataSample(
+			StringBuilder sb, List<Map<String, String>> actualDataSample, long actualRowCount) {
+		if (actualDataSample.size() == actualRowCount) {
+			appendActualDBData(sb, actualDataSample);
+			return;
+		}
+		sb.append("\n Actual DB data (first ").append(actualDataSample.size())
+				.append(" of ").append(actualRowCount).append(" rows):\n");
+		for (Map<String, String> actualRow : actualDataSample) {
+			sb.append(actualRow);
+			sb.append("\n");
+		}
+	}
+
+	public static void awaitVerify(String table, List<Map<String, String>> expectedData) {
+		awaitAssertion(() -> verify(table, expectedData));
+	}
+
+	public static void awaitVerify(
+			String table,
+			List<Map<String, String>> expectedData,
+			UnaryOperator<Map<String, String>> rowConverter) {
+		awaitAssertion(() -> verify(table, expectedData, rowConverter));
+	}
+
+	/**
+	 * Column names of a query result, shared by all its rows.
+	 */
+	private static final class Columns {
+		private final String[] names;
+		private final Map<String, Integer> indexes;
+
+		private Columns(Collection<String> names) {
+			this.names = names.toArray(new String[0]);
+			indexes = new HashMap<>();
+			for (int i = 0; i < this.names.length; i++) {
+				indexes.put(this.names[i], i);
+			}
+		}
+	}
+
+	/**
+	 * Unmodifiable row of a query result storing only its values,
+	 * the column names are shared with the other rows of the result.
+	 */
+	private static final class Row extends AbstractMap<String, String> {
+		private final Columns columns;
+		private final String[] values;
+
+		private Row(Columns columns, String[] values) {
+			this.columns = columns;
+			this.values = values;
+		}
+
+		@Override
+		public String get(Object column) {
+			Integer index = columns.indexes.get(column);
+			return index == null ? null : values[index];
+		}
+
+		@Override
+		public boolean containsKey(Object column) {
+			return columns.indexes.containsKey(column);
+		}
+
+		@Override
+		public int size() {
+			return values.length;
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return new AbstractSet<Entry<String, String>>() {
+				@Override
+				public Iterator<Entry<String, String>> iterator() {
+					return new Iterator<Entry<String, String>>() {
+						private int index = 0;
+
+						@Override
+						public boolean hasNext() {
+							return index < values.length;
+						}
+
+						@Override
+						public Entry<String, String> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							Entry<String, String> entry =
+									new SimpleImmutableEntry<>(columns.names[index], values[index]);
+							index++;
+							return entry;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return values.length;
+				}
+			};
+		}
+
+		private boolean hasColumns(Collection<String> names) {
+			return columns.indexes.keySet().containsAll(names);
+		}
+
+		private Row convert(Map<String, UnaryOperator<String>> converters) {
+			String[] converted = values.clone();
+			converters.forEach((column, converter) -> {
+				int index = columns.indexes.get(column);
+				converted[index] = converter.apply(values[index]);
+			});
+			return new Row(columns, converted);
+		}
+	}
+
+	/**
+	 * Hands out sequence values from a local buffer filled by a single query per block.
+	 * Values are unique, but not necessarily handed out in the order they are used in the DB.
+	 * The sequence is qualified by the schema the allocator was created in,
+	 * so the values come from that schema whatever schema the caller uses later.
+	 */
+	public static class SequenceAllocator {
+		private final String sequence;
+		private final int blockSize;
+		private final Deque<Long> values;
+
+		private SequenceAllocator(String qualifiedSequence, int blockSize) {
+			this.sequence = qualifiedSequence;
+			this.blockSize = positive("sequence block size", blockSize);
+			values = new ArrayDeque<>(blockSize);
+		}
+
+		public synchronized Long next() {
+			if (values.isEmpty()) {
+				if (blockSize == 1) {
+					values.add(nextQualifiedSequenceValue(sequence));
+				} else {
+					values.addAll(nextQualifiedSequenceValues(sequence, blockSize));
+				}
+			}
+			return values.poll();
+		}
+	}
+
 	public static class RowBuilder {
 		private final Map<String, Object> row;
 
@@ -479,6 +1977,10 @@ public class DB {
 			dates = new ArrayList<>();
 		}
 
+		public static RowsBuilder create() {
+			return new RowsBuilder(Collections.emptyList());
+		}
+
 		public static RowsBuilder from(List<Map<String, String>> data) {
 			return new RowsBuilder(data);
 		}
@@ -508,7 +2010,10 @@ public class DB {
 			return this;
 		}
 
-		private Map<String, Object> mapRow(Map<String, String> originalRow) {
+		/**
+		 * Map a single row, e.g. when streaming rows not held by this builder.
+		 */
+		public Map<String, Object> build(Map<String, String> originalRow) {
 			RowBuilder builder = RowBuilder.from(originalRow);
 			providers.forEach((column, provider) -> {
 				builder.with(column, provider.apply(originalRow));
@@ -520,7 +2025,7 @@ public class DB {
 
 		public List<Map<String, Object>> build() {
 			List<Map<String, Object>> data = originalData.stream()
-					.map(this::mapRow)
+					.map(this::build)
 					.collect(Collectors.toList());
 			return Collections.unmodifiableList(data);
 		}
@@ -544,6 +2049,9 @@ public class DB {
 
 		public UnaryOperator<Map<String, String>> build() {
 			return row -> {
+				if (row instanceof Row && ((Row) row).hasColumns(converters.keySet())) {
+					return ((Row) row).convert(converters);
+				}
 				Map<String, String> converted = new LinkedHashMap<>(row);
 				converters.forEach((column, converter) -> {
 					converted.put(column, converter.apply(row.get(column)));
@@ -2,18 +2,69 @@ package ft.support;
 
 import org.apache.commons.io.IOUtils;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class File {
 
+	/**
+	 * Re-read a file buffer when the file was modified since it was read,
+	 * e.g. while editing templates and re-running scenarios in IDE.
+	 * Enabled by the {@code ft.devMode} system property.
+	 */
+	public static boolean devMode = Boolean.getBoolean("ft.devMode");
+	/**
+	 * Files on the file system of at least this size are memory-mapped instead of being read into the heap.
+	 * A mapping is released only when its buffer is garbage collected
+	 * and until then the file cannot be rewritten on Windows, so small files like templates are read.
+	 * Set by the {@code ft.mapThresholdBytes} system property.
+	 */
+	public static long mapThresholdBytes = Long.getLong("ft.mapThresholdBytes", 1024 * 1024);
+	private static final Map<String, URL> resources = new ConcurrentHashMap<>();
+	private static final Map<URL, FileBuffer> buffers = new ConcurrentHashMap<>();
+
+	/**
+	 * Load a UTF-8 text file located next to the test class.
+	 * The text is decoded from the shared buffer of the file, see {@link #buffer(Class, String)},
+	 * on each call, so only the bytes of the file are kept for the whole run.
+	 */
 	public static String load(Object testInstance, String fileName) {
-		return new String(loadRaw(testInstance.getClass(), fileName), StandardCharsets.UTF_8);
+		return load(testInstance.getClass(), fileName);
 	}
 
 	public static String load(Class<?> testClass, String fileName) {
-		return new String(loadRaw(testClass, fileName), StandardCharsets.UTF_8);
+		return StandardCharsets.UTF_8.decode(buffer(testClass, fileName)).toString();
+	}
+
+	/**
+	 * Get the path of a file located next to the test class on the file system,
+	 * e.g. to stream a large file instead of loading it.
+	 */
+	public static Path path(Object testInstance, String fileName) {
+		URL url = resource(testInstance.getClass(), fileName);
+		if (null == url) {
+			throw new RuntimeException("Cannot find file " + fileName + ". Does it exist?");
+		}
+		try {
+			return Paths.get(url.toURI());
+		} catch (URISyntaxException | FileSystemNotFoundException e) {
+			throw new RuntimeException("File " + fileName + " is not on the file system: " + url, e);
+		}
 	}
 
 	public static byte[] loadRaw(Object testInstance, String fileName) {
@@ -21,15 +72,156 @@ public class File {
 	}
 
 	public static byte[] loadRaw(Class<?> testClass, String fileName) {
-		InputStream inputStream = testClass.getResourceAsStream(fileName);
-		if (null == inputStream) {
+		ByteBuffer buffer = buffer(testClass, fileName);
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	public static ByteBuffer buffer(Object testInstance, String fileName) {
+		return buffer(testInstance.getClass(), fileName);
+	}
+
+	/**
+	 * Get a read-only view of the bytes of a file located next to the test class.
+	 * A large file on the file system is memory-mapped instead of being read into the heap
+	 * (see {@link #mapThresholdBytes}), other files are read once.
+	 * The bytes are shared and kept for the whole run, each call returns a new view of them.
+	 */
+	public static ByteBuffer buffer(Class<?> testClass, String fileName) {
+		URL url = resource(testClass, fileName);
+		if (null == url) {
 			throw new RuntimeException("Cannot read file " + fileName + ". Does it exist?");
 		}
+		FileBuffer buffer = buffers.get(url);
+		if (buffer == null || devMode && buffer.lastModified != lastModified(url)) {
+			buffer = new FileBuffer(url, fileName);
+			buffers.put(url, buffer);
+		}
+		return buffer.buffer.asReadOnlyBuffer();
+	}
+
+	public static InputStream stream(Object testInstance, String fileName) {
+		return stream(testInstance.getClass(), fileName);
+	}
+
+	/**
+	 * Get a stream of the bytes of a file located next to the test class, see {@link #buffer(Class, String)},
+	 * e.g. to parse a large file directly from the mapped bytes.
+	 */
+	public static InputStream stream(Class<?> testClass, String fileName) {
+		return new ByteBufferInputStream(buffer(testClass, fileName));
+	}
+
+	public static BufferedReader reader(Object testInstance, String fileName) {
+		return reader(testInstance.getClass(), fileName);
+	}
+
+	/**
+	 * Get a reader of a UTF-8 text file located next to the test class, see {@link #stream(Class, String)}.
+	 */
+	public static BufferedReader reader(Class<?> testClass, String fileName) {
+		return new BufferedReader(new InputStreamReader(stream(testClass, fileName), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return last modified time of a file located next to the test class, -1 when not on the file system
+	 */
+	public static long lastModified(Class<?> testClass, String fileName) {
+		URL url = resource(testClass, fileName);
+		return url == null ? -1 : lastModified(url);
+	}
+
+	/**
+	 * Resolve a file name relative to the test class once,
+	 * as looking it up on the class path is slow with many class path entries.
+	 *
+	 * @return URL of the file, or null when it does not exist
+	 */
+	private static URL resource(Class<?> testClass, String fileName) {
+		String key = testClass.getName() + ":" + fileName;
+		URL url = resources.get(key);
+		if (url == null) {
+			url = testClass.getResource(fileName);
+			if (url != null) {
+				resources.put(key, url);
+			}
+		}
+		return url;
+	}
+
+	/**
+	 * @return last modified time of a file on the file system, -1 for other resources
+	 */
+	private static long lastModified(URL url) {
 		try {
-			return IOUtils.toByteArray(inputStream);
-		} catch (IOException e1) {
-			throw new RuntimeException("Cannot read file " + fileName
-					+ ". Do I have permission to read it?");
+			return Files.getLastModifiedTime(Paths.get(url.toURI())).toMillis();
+		} catch (URISyntaxException | FileSystemNotFoundException | IllegalArgumentException
+				| IOException e) {
+			return -1;
+		}
+	}
+
+	private static class FileBuffer {
+		private final long lastModified;
+		private final ByteBuffer buffer;
+
+		private FileBuffer(URL url, String fileName) {
+			lastModified = lastModified(url);
+			try {
+				if (lastModified == -1) {
+					try (InputStream inputStream = url.openStream()) {
+						buffer = ByteBuffer.wrap(IOUtils.toByteArray(inputStream));
+					}
+				} else {
+					try (FileChannel channel = FileChannel.open(Paths.get(url.toURI()), StandardOpenOption.READ)) {
+						buffer = channel.size() < mapThresholdBytes
+								? ByteBuffer.wrap(IOUtils.toByteArray(Channels.newInputStream(channel)))
+								: channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+					}
+				}
+			} catch (IOException | URISyntaxException e) {
+				throw new RuntimeException("Cannot read file " + fileName
+						+ ". Do I have permission to read it?", e);
+			}
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long count) {
+			int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
 		}
 	}
 }
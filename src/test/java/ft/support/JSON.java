@@ -2,6 +2,9 @@ package ft.support;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.TreeNode;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -9,12 +12,36 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.spi.json.JacksonJsonNodeJsonProvider;
+import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 public class JSON {
 
 	public static ObjectMapper objectMapper;
+	/**
+	 * JsonPath configuration reading and modifying {@link JsonNode} trees in place.
+	 */
+	public static Configuration jsonNodeConfiguration;
+	private static final JsonFactory jsonFactory = new JsonFactory();
+	private static final Pattern PATH_SEGMENT =
+			Pattern.compile("\\.?([^.\\[\\]']+)|\\['([^']+)'\\]|\\[(\\d+|\\*)\\]");
+	private static final String ANY = "*";
+	private static final int MAX_VALUE_LENGTH = 200;
 
 	static {
 		objectMapper = new ObjectMapper();
@@ -22,6 +49,10 @@ public class JSON {
 		objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
 		objectMapper.configure(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS, true);
 		objectMapper.setNodeFactory(JsonNodeFactory.withExactBigDecimals(true));
+		jsonNodeConfiguration = Configuration.builder()
+				.jsonProvider(new JacksonJsonNodeJsonProvider(objectMapper))
+				.mappingProvider(new JacksonMappingProvider(objectMapper))
+				.build();
 	}
 
 	/**
@@ -31,10 +62,28 @@ public class JSON {
 	 * @return Re-formatted JSON {@link String}
 	 */
 	public static String format(String json) {
-		return convertToString(convertToJson(json));
+		long start = Metrics.start();
+		String formatted = convertToString(convertToJson(json));
+		Metrics.stop("json.format", start);
+		return formatted;
+	}
+
+	/**
+	 * Parse JSON from a stream, e.g. of a large file, without reading it into a {@link String} first.
+	 *
+	 * @param json   JSON stream
+	 * @param source description of the stream for the error message, e.g. a file name
+	 */
+	public static JsonNode convertToJson(InputStream json, String source) {
+		try {
+			return objectMapper.readTree(json);
+		} catch (Exception e) {
+			throw new RuntimeException(
+					"Cannot parse JSON from " + source + ". Does it contain valid JSON?", e);
+		}
 	}
 
-	private static JsonNode convertToJson(String json) {
+	public static JsonNode convertToJson(String json) {
 		try {
 			return objectMapper.readTree(json);
 		} catch (Exception e) {
@@ -46,7 +95,7 @@ public class JSON {
 	public static String convertToString(TreeNode jsonNode) {
 		try {
 			StringWriter stringWriter = new StringWriter();
-			JsonGenerator generator = new JsonFactory().createGenerator(stringWriter);
+			JsonGenerator generator = jsonFactory.createGenerator(stringWriter);
 			generator.useDefaultPrettyPrinter();
 			objectMapper.writeTree(generator, jsonNode);
 			return stringWriter.toString();
@@ -54,4 +103,262 @@ public class JSON {
 			throw new RuntimeException("Cannot format JSON string. Does it contain valid JSON?", e);
 		}
 	}
+
+	/**
+	 * Compare JSON trees structurally, stopping at the first difference.
+	 * Numbers are compared by value, so {@code 77}, {@code 77.0} and {@code 7.7E1} are equal.
+	 * The order of object fields is ignored.
+	 *
+	 * @param expected expected JSON tree
+	 * @param actual   actual JSON tree
+	 * @return path of the first difference, e.g. {@code $.films[2]}, or null when the trees are equal
+	 */
+	public static String difference(JsonNode expected, JsonNode actual) {
+		String difference = differenceFrom(expected, actual);
+		return difference == null ? null : "$" + difference;
+	}
+
+	/**
+	 * @return path of the first difference relative to the nodes, or null
+	 */
+	private static String differenceFrom(JsonNode expected, JsonNode actual) {
+		if (expected.isNumber() && actual.isNumber()) {
+			return expected.decimalValue().compareTo(actual.decimalValue()) == 0 ? null : "";
+		}
+		if (expected.getNodeType() != actual.getNodeType()) {
+			return "";
+		}
+		if (expected.isObject()) {
+			Iterator<Map.Entry<String, JsonNode>> fields = expected.fields();
+			while (fields.hasNext()) {
+				Map.Entry<String, JsonNode> field = fields.next();
+				JsonNode actualValue = actual.get(field.getKey());
+				if (actualValue == null) {
+					return "." + field.getKey();
+				}
+				String difference = differenceFrom(field.getValue(), actualValue);
+				if (difference != null) {
+					return "." + field.getKey() + difference;
+				}
+			}
+			if (actual.size() != expected.size()) {
+				Iterator<String> actualFields = actual.fieldNames();
+				while (actualFields.hasNext()) {
+					String field = actualFields.next();
+					if (!expected.has(field)) {
+						return "." + field;
+					}
+				}
+			}
+			return null;
+		}
+		if (expected.isArray()) {
+			int size = Math.min(expected.size(), actual.size());
+			for (int i = 0; i < size; i++) {
+				String difference = differenceFrom(expected.get(i), actual.get(i));
+				if (difference != null) {
+					return "[" + i + "]" + difference;
+				}
+			}
+			return expected.size() == actual.size() ? null : "[" + size + "]";
+		}
+		return expected.equals(actual) ? null : "";
+	}
+
+	/**
+	 * Compare the JSON document read by the parser with the expected tree
+	 * like {@link #difference(JsonNode, JsonNode)}, but token by token,
+	 * so the memory used does not depend on the size of the document.
+	 * <p>
+	 * The values at the ignored paths are skipped, only their presence is compared.
+	 * The paths are definite JsonPath paths, optionally with wildcards,
+	 * e.g. {@code films}, {@code $.items[*].created}.
+	 * Content after the root value is a difference.
+	 *
+	 * @param expected     expected JSON tree
+	 * @param actual       parser of the actual JSON document
+	 * @param ignoredPaths paths of the ignored values
+	 * @return path of the first difference with the expected and actual values, or null when equal
+	 */
+	public static String difference(JsonNode expected, JsonParser actual, Collection<String> ignoredPaths) {
+		List<List<Object>> ignored = ignoredPaths.stream()
+				.map(JSON::pathSegments)
+				.collect(Collectors.toList());
+		try {
+			if (actual.nextToken() == null) {
+				return "$ expected: " + describe(expected) + ", but was: no content";
+			}
+			String difference = differenceFrom(expected, actual, new ArrayList<>(), ignored);
+			if (difference == null) {
+				difference = trailingContent(actual);
+			}
+			return difference;
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot parse JSON stream. Does it contain valid JSON?", e);
+		}
+	}
+
+	/**
+	 * @return difference when there is content after the root value read by the parser, or null
+	 */
+	private static String trailingContent(JsonParser actual) throws IOException {
+		String content;
+		try {
+			if (actual.nextToken() == null) {
+				return null;
+			}
+			content = describe(actual);
+		} catch (JsonParseException e) {
+			content = "invalid content";
+		}
+		return "$ expected: end of content, but was: " + content;
+	}
+
+	private static List<Object> pathSegments(String path) {
+		String relativePath = path.startsWith("$") ? path.substring(1) : path;
+		List<Object> segments = new ArrayList<>();
+		Matcher matcher = PATH_SEGMENT.matcher(relativePath);
+		int end = 0;
+		while (matcher.find() && matcher.start() == end) {
+			if (matcher.group(3) == null) {
+				segments.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+			} else if (ANY.equals(matcher.group(3))) {
+				segments.add(ANY);
+			} else {
+				segments.add(Integer.valueOf(matcher.group(3)));
+			}
+			end = matcher.end();
+		}
+		if (end != relativePath.length()) {
+			throw new RuntimeException("Unsupported JSON path " + path
+					+ ". Only definite paths with wildcards are supported.");
+		}
+		return segments;
+	}
+
+	private static boolean isIgnored(List<Object> path, List<List<Object>> ignored) {
+		for (List<Object> ignoredPath : ignored) {
+			if (ignoredPath.size() != path.size()) {
+				continue;
+			}
+			boolean matches = true;
+			for (int i = 0; i < path.size() && matches; i++) {
+				Object segment = ignoredPath.get(i);
+				matches = ANY.equals(segment) || segment.equals(path.get(i));
+			}
+			if (matches) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compare the value at the current token of the parser, leaving the parser at its last token.
+	 */
+	private static String differenceFrom(
+			JsonNode expected, JsonParser actual, List<Object> path, List<List<Object>> ignored)
+			throws IOException {
+		if (isIgnored(path, ignored)) {
+			actual.skipChildren();
+			return null;
+		}
+		JsonToken token = actual.getCurrentToken();
+		if (token == JsonToken.START_OBJECT) {
+			if (!expected.isObject()) {
+				return mismatch(path, describe(expected), describe(actual));
+			}
+			Set<String> fields = new HashSet<>();
+			while (actual.nextToken() == JsonToken.FIELD_NAME) {
+				String field = actual.getCurrentName();
+				actual.nextToken();
+				path.add(field);
+				JsonNode expectedValue = expected.get(field);
+				if (expectedValue == null) {
+					return mismatch(path, "no value", describe(actual));
+				}
+				String difference = differenceFrom(expectedValue, actual, path, ignored);
+				if (difference != null) {
+					return difference;
+				}
+				path.remove(path.size() - 1);
+				fields.add(field);
+			}
+			Iterator<String> expectedFields = expected.fieldNames();
+			while (fields.size() != expected.size() && expectedFields.hasNext()) {
+				String field = expectedFields.next();
+				if (!fields.contains(field)) {
+					path.add(field);
+					return mismatch(path, describe(expected.get(field)), "no value");
+				}
+			}
+			return null;
+		}
+		if (token == JsonToken.START_ARRAY) {
+			if (!expected.isArray()) {
+				return mismatch(path, describe(expected), describe(actual));
+			}
+			int index = 0;
+			while (actual.nextToken() != JsonToken.END_ARRAY) {
+				path.add(index);
+				if (index >= expected.size()) {
+					return mismatch(path, "no value", describe(actual));
+				}
+				String difference = differenceFrom(expected.get(index), actual, path, ignored);
+				if (difference != null) {
+					return difference;
+				}
+				path.remove(path.size() - 1);
+				index++;
+			}
+			if (index < expected.size()) {
+				path.add(index);
+				return mismatch(path, describe(expected.get(index)), "no value");
+			}
+			return null;
+		}
+		boolean equal;
+		if (token.isNumeric()) {
+			equal = expected.isNumber() && expected.decimalValue().compareTo(actual.getDecimalValue()) == 0;
+		} else if (token == JsonToken.VALUE_STRING) {
+			equal = expected.isTextual() && expected.textValue().equals(actual.getText());
+		} else if (token.isBoolean()) {
+			equal = expected.isBoolean() && expected.booleanValue() == (token == JsonToken.VALUE_TRUE);
+		} else {
+			equal = token == JsonToken.VALUE_NULL && expected.isNull();
+		}
+		return equal ? null : mismatch(path, describe(expected), describe(actual));
+	}
+
+	private static String mismatch(List<Object> path, String expected, String actual) {
+		StringBuilder sb = new StringBuilder("$");
+		for (Object segment : path) {
+			if (segment instanceof Integer) {
+				sb.append('[').append(segment).append(']');
+			} else {
+				sb.append('.').append(segment);
+			}
+		}
+		sb.append(" expected: ").append(expected);
+		sb.append(", but was: ").append(actual);
+		return sb.toString();
+	}
+
+	private static String describe(JsonNode expected) {
+		String value = expected.toString();
+		return value.length() > MAX_VALUE_LENGTH ? value.substring(0, MAX_VALUE_LENGTH) + "..." : value;
+	}
+
+	private static String describe(JsonParser actual) throws IOException {
+		switch (actual.getCurrentToken()) {
+			case START_OBJECT:
+				return "an object";
+			case START_ARRAY:
+				return "an array";
+			case VALUE_STRING:
+				return describe(objectMapper.getNodeFactory().textNode(actual.getText()));
+			default:
+				return actual.getText();
+		}
+	}
 }
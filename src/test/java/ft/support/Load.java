@@ -0,0 +1,135 @@
+package ft.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Load generation: a request repeated by concurrent workers for a given time.
+ * Each worker sends the next request as soon as the previous one completes.
+ */
+public class Load {
+
+	/**
+	 * Repeat the request for the duration.
+	 * The request fails when it returns false or throws an exception or an assertion error.
+	 * It is sent once before the load without being measured,
+	 * so that one-off initialization (e.g. of the HTTP client in a new JVM) does not count as latency.
+	 *
+	 * @param concurrency    number of concurrent workers
+	 * @param durationMillis duration of the load
+	 * @param request        request returning whether it succeeded
+	 * @return latencies, throughput and error count
+	 */
+	public static Result run(int concurrency, long durationMillis, BooleanSupplier request) {
+		Result result = new Result();
+		try {
+			request.getAsBoolean();
+		} catch (Exception | AssertionError e) {
+			// counted when the workers repeat the request
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+			Thread thread = new Thread(runnable, "load");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+		try {
+			List<Future<?>> workers = new ArrayList<>();
+			for (int i = 0; i < concurrency; i++) {
+				workers.add(executor.submit(() -> {
+					while (System.nanoTime() < deadline) {
+						result.record(request);
+					}
+				}));
+			}
+			for (Future<?> worker : workers) {
+				worker.get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Error generating load.", e);
+		} finally {
+			executor.shutdownNow();
+		}
+		result.elapsedNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	public static class Result {
+		private final Metrics.Timer latency = new Metrics.Timer();
+		private final AtomicLong errors = new AtomicLong();
+		private volatile Throwable lastError;
+		private long elapsedNanos;
+
+		private void record(BooleanSupplier request) {
+			long start = Metrics.start();
+			boolean succeeded;
+			try {
+				succeeded = request.getAsBoolean();
+			} catch (Exception | AssertionError e) {
+				lastError = e;
+				succeeded = false;
+			}
+			long nanos = System.nanoTime() - start;
+			latency.record(nanos);
+			Metrics.timer("load.request").record(nanos);
+			if (!succeeded) {
+				errors.incrementAndGet();
+				Metrics.count("load.errors", 1);
+			}
+		}
+
+		public long getRequests() {
+			return latency.getCount();
+		}
+
+		public long getErrors() {
+			return errors.get();
+		}
+
+		/**
+		 * @return last exception or assertion error thrown by a request, or null
+		 */
+		public Throwable getLastError() {
+			return lastError;
+		}
+
+		/**
+		 * @return failed requests in percent
+		 */
+		public double errorRate() {
+			return getRequests() == 0 ? 0 : 100.0 * getErrors() / getRequests();
+		}
+
+		/**
+		 * @return requests per second
+		 */
+		public double throughput() {
+			return getRequests() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+		}
+
+		/**
+		 * @param percentile percentile between 0 and 100
+		 * @return latency at the percentile in milliseconds
+		 */
+		public double latencyMillis(double percentile) {
+			return latency.percentileNanos(percentile) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT,
+					"%d requests, %.1f/s, %.2f%% errors, latency p50 %.3f ms, p95 %.3f ms, p99 %.3f ms",
+					getRequests(), throughput(), errorRate(),
+					latencyMillis(50), latencyMillis(95), latencyMillis(99));
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package ft.support;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import org.hamcrest.BaseMatcher;
@@ -7,7 +8,6 @@ import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.hamcrest.core.IsEqual;
 
-import java.util.Objects;
 import java.util.function.UnaryOperator;
 
 import static org.junit.Assert.assertEquals;
@@ -58,9 +58,22 @@ public class Matchers {
 		return new IsJsonEqual<>(templateFilename, expected, replacer);
 	}
 
+	/**
+	 * Asserts that the value is a JSON String equal to the parsed JSON
+	 * while applying a replacing function on the JSON model.
+	 *
+	 * @param templateFilename template filename
+	 * @param expected         expected JSON tree, it is not modified
+	 * @param replacer         replacing function, or null
+	 */
+	public static Matcher<String> jsonEqualTo(
+			String templateFilename, JsonNode expected, UnaryOperator<DocumentContext> replacer) {
+		return new IsJsonEqual<>(templateFilename, expected, replacer);
+	}
+
 	public static class IsJsonEqual<T> extends BaseMatcher<String> {
 		private final String templateFilename;
-		private final String expected;
+		private final Object expected;
 		private final UnaryOperator<DocumentContext> replacer;
 
 		public IsJsonEqual(String templateFilename, String expected,
@@ -70,28 +83,49 @@ public class Matchers {
 			this.replacer = replacer;
 		}
 
-		private String normalize(String content) {
-			String json = JSON.format(content);
-			// pre-format first to ensure pretty error reporting of invalid JSON
+		public IsJsonEqual(String templateFilename, JsonNode expected,
+		                   UnaryOperator<DocumentContext> replacer) {
+			this.templateFilename = templateFilename;
+			this.expected = expected;
+			this.replacer = replacer;
+		}
+
+		/**
+		 * Parse the content and apply the replacer on the tree.
+		 * A JSON tree is copied before replacing, as it may be a shared template.
+		 */
+		private JsonNode normalize(Object content) {
+			JsonNode json;
+			if (content instanceof JsonNode) {
+				json = (JsonNode) content;
+				if (null != replacer) {
+					json = json.deepCopy();
+				}
+			} else {
+				json = JSON.convertToJson((String) content);
+			}
 			if (null != replacer) {
-				json = replacer.apply(JsonPath.parse(json)).jsonString();
-				json = JSON.format(json); // re-format again after replacing
+				json = replacer.apply(JsonPath.using(JSON.jsonNodeConfiguration).parse(json)).json();
 			}
-			// strip trailing zeroes from effectively whole numbers
-			json = json.replaceAll("\\.0{1,3}(,\\r?\\n)", "$1");
 			return json;
 		}
 
+		/**
+		 * Compares the JSON trees by {@link JSON#difference(JsonNode, JsonNode)},
+		 * the formatted JSON is only built to report a difference.
+		 */
 		@Override
 		public boolean matches(Object actual) {
-			String expectedNormalized = normalize(expected);
-			String actualNormalized = normalize((String) actual);
-			boolean match = Objects.equals(expectedNormalized, actualNormalized);
-			if (!match) {
-				assertEquals("Template file: (" + templateFilename + ":1)",
-						expectedNormalized, actualNormalized);
+			long start = Metrics.start();
+			JsonNode expectedNormalized = normalize(expected);
+			JsonNode actualNormalized = normalize(actual);
+			String difference = JSON.difference(expectedNormalized, actualNormalized);
+			Metrics.stop("json.compare", start);
+			if (difference != null) {
+				assertEquals("Template file: (" + templateFilename + ":1), first difference at " + difference,
+						JSON.convertToString(expectedNormalized), JSON.convertToString(actualNormalized));
 			}
-			return match;
+			return difference == null;
 		}
 
 		@Override
@@ -0,0 +1,141 @@
+package ft.support;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Timers and counters of the support classes, reported by {@link MetricsPlugin}.
+ * <p>
+ * Timer durations are kept in a histogram of logarithmic buckets,
+ * so recording is cheap and the memory is bounded
+ * while the percentiles are accurate to 12.5%.
+ */
+public class Metrics {
+
+	private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+	private static final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+	public static Timer timer(String name) {
+		return timers.computeIfAbsent(name, key -> new Timer());
+	}
+
+	/**
+	 * Get the start time of a duration recorded by {@link #stop(String, long)}.
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	public static void stop(String timer, long startNanos) {
+		timer(timer).record(System.nanoTime() - startNanos);
+	}
+
+	public static <T> T time(String timer, Supplier<T> action) {
+		long start = start();
+		try {
+			return action.get();
+		} finally {
+			stop(timer, start);
+		}
+	}
+
+	public static void time(String timer, Runnable action) {
+		long start = start();
+		try {
+			action.run();
+		} finally {
+			stop(timer, start);
+		}
+	}
+
+	public static void count(String counter, long amount) {
+		counters.computeIfAbsent(counter, key -> new AtomicLong()).addAndGet(amount);
+	}
+
+	/**
+	 * @return timers sorted by name
+	 */
+	public static Map<String, Timer> timers() {
+		return new TreeMap<>(timers);
+	}
+
+	/**
+	 * @return counter values sorted by name
+	 */
+	public static Map<String, Long> counters() {
+		Map<String, Long> values = new TreeMap<>();
+		counters.forEach((name, counter) -> values.put(name, counter.get()));
+		return values;
+	}
+
+	public static void reset() {
+		timers.clear();
+		counters.clear();
+	}
+
+	public static class Timer {
+		// 8 sub-buckets for each power of two
+		private static final int SUB_BUCKET_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private final long[] buckets = new long[bucket(Long.MAX_VALUE) + 1];
+		private long count = 0;
+		private long totalNanos = 0;
+		private long maxNanos = 0;
+
+		private static int bucket(long nanos) {
+			if (nanos < SUB_BUCKETS) {
+				return (int) Math.max(nanos, 0);
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+			int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+			return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+		}
+
+		private static long bucketUpperBound(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+			int shift = bucket / SUB_BUCKETS - 1;
+			long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+			return lowerBound + (1L << shift) - 1;
+		}
+
+		public synchronized void record(long nanos) {
+			buckets[bucket(nanos)]++;
+			count++;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		public synchronized long getTotalNanos() {
+			return totalNanos;
+		}
+
+		public synchronized long getMaxNanos() {
+			return maxNanos;
+		}
+
+		/**
+		 * @param percentile percentile between 0 and 100
+		 * @return upper bound of the duration at the percentile, 0 when nothing was recorded
+		 */
+		public synchronized long percentileNanos(double percentile) {
+			long rank = (long) Math.ceil(count * percentile / 100);
+			long seen = 0;
+			for (int bucket = 0; bucket < buckets.length; bucket++) {
+				seen += buckets[bucket];
+				if (seen >= rank && seen > 0) {
+					return Math.min(bucketUpperBound(bucket), maxNanos);
+				}
+			}
+			return 0;
+		}
+	}
+}
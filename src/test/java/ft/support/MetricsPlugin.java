@@ -0,0 +1,217 @@
+package ft.support;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gherkin.formatter.Formatter;
+import gherkin.formatter.Reporter;
+import gherkin.formatter.model.Background;
+import gherkin.formatter.model.Examples;
+import gherkin.formatter.model.Feature;
+import gherkin.formatter.model.Match;
+import gherkin.formatter.model.Result;
+import gherkin.formatter.model.Scenario;
+import gherkin.formatter.model.ScenarioOutline;
+import gherkin.formatter.model.Step;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cucumber plugin recording the wall time of steps, hooks and scenarios as {@link Metrics} timers.
+ * At the end of the run it writes all the timers with their percentiles and the counters
+ * recorded since the run started to the JSON file given as the plugin argument, e.g. {@code ft.support.MetricsPlugin:target/metrics.json},
+ * and prints the slowest steps and scenarios.
+ */
+public class MetricsPlugin implements Formatter, Reporter {
+
+	private static final int SLOWEST_COUNT = 5;
+	private final File reportFile;
+	private final LinkedList<Step> steps = new LinkedList<>();
+	private final List<Duration> stepDurations = new ArrayList<>();
+	private final List<Duration> scenarioDurations = new ArrayList<>();
+	private boolean started = false;
+	private String uri;
+	private String scenario;
+	private long scenarioStart;
+
+	public MetricsPlugin(File reportFile) {
+		this.reportFile = reportFile;
+	}
+
+	@Override
+	public void uri(String uri) {
+		if (!started) {
+			// the metrics are static, so drop the ones of a previous runner in the same (reused) JVM
+			Metrics.reset();
+			started = true;
+		}
+		this.uri = uri;
+	}
+
+	@Override
+	public void startOfScenarioLifeCycle(Scenario scenario) {
+		this.scenario = uri + ":" + scenario.getLine() + " " + scenario.getName();
+		scenarioStart = Metrics.start();
+	}
+
+	@Override
+	public void step(Step step) {
+		steps.add(step);
+	}
+
+	@Override
+	public void before(Match match, Result result) {
+		record("hook.before", result);
+	}
+
+	@Override
+	public void result(Result result) {
+		Step step = steps.poll();
+		if (step == null || result.getDuration() == null) {
+			return;
+		}
+		String name = step.getKeyword() + step.getName();
+		record("step " + name, result);
+		stepDurations.add(new Duration(scenario + " / " + name, result.getDuration()));
+	}
+
+	@Override
+	public void after(Match match, Result result) {
+		record("hook.after", result);
+	}
+
+	@Override
+	public void endOfScenarioLifeCycle(Scenario scenario) {
+		long nanos = System.nanoTime() - scenarioStart;
+		Metrics.timer("scenario").record(nanos);
+		scenarioDurations.add(new Duration(this.scenario, nanos));
+		steps.clear();
+	}
+
+	@Override
+	public void done() {
+		writeReport();
+		printSlowest("steps", stepDurations);
+		printSlowest("scenarios", scenarioDurations);
+	}
+
+	private static void record(String timer, Result result) {
+		if (result.getDuration() != null) {
+			Metrics.timer(timer).record(result.getDuration());
+		}
+	}
+
+	private void writeReport() {
+		ObjectNode report = JSON.objectMapper.createObjectNode();
+		ObjectNode timers = report.putObject("timers");
+		Metrics.timers().forEach((name, timer) -> {
+			ObjectNode node = timers.putObject(name);
+			node.put("count", timer.getCount());
+			node.put("totalMillis", millis(timer.getTotalNanos()));
+			node.put("p50Millis", millis(timer.percentileNanos(50)));
+			node.put("p95Millis", millis(timer.percentileNanos(95)));
+			node.put("p99Millis", millis(timer.percentileNanos(99)));
+			node.put("maxMillis", millis(timer.getMaxNanos()));
+		});
+		ObjectNode counters = report.putObject("counters");
+		Metrics.counters().forEach(counters::put);
+		writeSlowest(report.putArray("slowestSteps"), stepDurations);
+		writeSlowest(report.putArray("slowestScenarios"), scenarioDurations);
+		try {
+			if (reportFile.getParentFile() != null) {
+				Files.createDirectories(reportFile.getParentFile().toPath());
+			}
+			Files.write(reportFile.toPath(),
+					JSON.convertToString(report).getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write metrics report " + reportFile, e);
+		}
+	}
+
+	private static void writeSlowest(ArrayNode array, List<Duration> durations) {
+		slowest(durations).forEach(duration -> array.addObject()
+				.put("name", duration.name)
+				.put("millis", millis(duration.nanos)));
+	}
+
+	private static void printSlowest(String title, List<Duration> durations) {
+		if (durations.isEmpty()) {
+			return;
+		}
+		System.out.println("Slowest " + title + ":");
+		slowest(durations).forEach(duration -> System.out.println(
+				String.format(Locale.ROOT, "%10.3f ms  %s", millis(duration.nanos), duration.name)));
+	}
+
+	private static List<Duration> slowest(List<Duration> durations) {
+		List<Duration> sorted = new ArrayList<>(durations);
+		sorted.sort(Comparator.comparingLong((Duration duration) -> duration.nanos).reversed());
+		return sorted.subList(0, Math.min(SLOWEST_COUNT, sorted.size()));
+	}
+
+	private static double millis(long nanos) {
+		return Math.round((double) nanos / TimeUnit.MICROSECONDS.toNanos(1)) / 1000.0;
+	}
+
+	private static class Duration {
+		private final String name;
+		private final long nanos;
+
+		private Duration(String name, long nanos) {
+			this.name = name;
+			this.nanos = nanos;
+		}
+	}
+
+	@Override
+	public void syntaxError(String state, String event, List<String> legalEvents, String uri, Integer line) {
+	}
+
+	@Override
+	public void feature(Feature feature) {
+	}
+
+	@Override
+	public void scenarioOutline(ScenarioOutline scenarioOutline) {
+	}
+
+	@Override
+	public void examples(Examples examples) {
+	}
+
+	@Override
+	public void background(Background background) {
+	}
+
+	@Override
+	public void scenario(Scenario scenario) {
+	}
+
+	@Override
+	public void eof() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public void match(Match match) {
+	}
+
+	@Override
+	public void embedding(String mimeType, byte[] data) {
+	}
+
+	@Override
+	public void write(String text) {
+	}
+}
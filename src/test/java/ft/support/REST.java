@@ -1,25 +1,251 @@
 package ft.support;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
+import io.restassured.RestAssured;
+import io.restassured.config.HttpClientConfig;
+import io.restassured.config.RestAssuredConfig;
+import io.restassured.filter.Filter;
+import io.restassured.response.Response;
 import io.restassured.response.ValidatableResponse;
+import io.restassured.specification.RequestSpecification;
+import org.apache.http.HttpHost;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
 import org.hamcrest.Matcher;
+import org.junit.Assert;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.function.UnaryOperator;
 
 import static ft.support.Matchers.jsonEqualTo;
 
 public class REST {
 
+	/**
+	 * Base URL of the tested API.
+	 * Read from {@code rest.api}, when empty the API is served by a {@link StubServer}.
+	 */
+	public static String api;
+	public static StubServer stubServer;
+	public static final int DEFAULT_POOL_SIZE = 50;
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+	public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 30000;
+	public static final int PATH_CACHE_SIZE = 256;
+	private static volatile boolean initialized = false;
+	// RestAssured 3 takes only the deprecated HttpClient 4 API, whose deprecated classes are not imported
+	@SuppressWarnings("deprecation")
+	private static org.apache.http.impl.conn.PoolingClientConnectionManager connectionManager;
+	private static volatile RestAssuredConfig config;
+	private static final AtomicLong connectionsOpened = new AtomicLong();
+	private static final Filter TIMER = (request, response, context) -> {
+		long start = Metrics.start();
+		try {
+			return context.next(request, response);
+		} finally {
+			Metrics.stop("rest.request", start);
+		}
+	};
+	private static final Filter BUFFER = (request, response, context) -> {
+		Response result = context.next(request, response);
+		// reading the whole body releases the connection back to the pool
+		result.asByteArray();
+		return result;
+	};
+	private static final Map<String, Template> templates = new ConcurrentHashMap<>();
+	private static final Map<String, JsonPath> compiledPaths = Collections.synchronizedMap(
+			new LinkedHashMap<String, JsonPath>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, JsonPath> eldest) {
+					return size() > PATH_CACHE_SIZE;
+				}
+			});
+
+	public static void initializeIfRequired() {
+		initializeIfRequired(DB.DEFAULT_PROPERTIES_FILENAME);
+	}
+
+	public static void initializeIfRequired(String propertiesFileName) {
+		if (!initialized) {
+			synchronized (REST.class) {
+				if (!initialized) {
+					loadProperties(propertiesFileName);
+					initialized = true;
+				}
+			}
+		}
+	}
+
+	private static void loadProperties(String fileName) {
+		Path file = Paths.get(fileName);
+		if (!Files.exists(file)) {
+			throw new RuntimeException("Properties file not found: " + fileName +
+					"\nShould be at: " + file.toAbsolutePath());
+		}
+		Properties properties = new Properties();
+		try (InputStream is = Files.newInputStream(file)) {
+			properties.load(is);
+		} catch (IOException e) {
+			throw new RuntimeException("Properties file unreadable: " + fileName);
+		}
+		configureClient(
+				Integer.parseInt(properties.getProperty(
+						"rest.poolSize", String.valueOf(DEFAULT_POOL_SIZE))),
+				Integer.parseInt(properties.getProperty(
+						"rest.connectTimeoutMillis", String.valueOf(DEFAULT_CONNECT_TIMEOUT_MILLIS))),
+				Integer.parseInt(properties.getProperty(
+						"rest.socketTimeoutMillis", String.valueOf(DEFAULT_SOCKET_TIMEOUT_MILLIS))));
+		api = properties.getProperty("rest.api", "");
+		if (api.isEmpty()) {
+			stubServer = new StubServer(
+					Integer.parseInt(properties.getProperty("rest.stub.port", "0")),
+					Paths.get(properties.getProperty("rest.stub.recordings", "src/test/stub")),
+					properties.getProperty("rest.stub.recordFrom"));
+			stubServer.start();
+			Runtime.getRuntime().addShutdownHook(new Thread(stubServer::stop));
+			api = stubServer.url() + properties.getProperty("rest.stub.basePath", "");
+		}
+	}
+
+	/**
+	 * Configure the HTTP client shared by all the requests of {@link #request()},
+	 * done by {@link #initializeIfRequired()} from the properties.
+	 * Its connections are pooled and kept alive, so they are reused across scenarios and threads.
+	 *
+	 * @param poolSize             maximum number of connections, also per host
+	 * @param connectTimeoutMillis connect timeout
+	 * @param socketTimeoutMillis  timeout waiting for data
+	 */
+	@SuppressWarnings("deprecation") // the HttpClient API of RestAssured 3, see connectionManager
+	public static synchronized void configureClient(
+			int poolSize, int connectTimeoutMillis, int socketTimeoutMillis) {
+		org.apache.http.impl.conn.PoolingClientConnectionManager previousConnectionManager = connectionManager;
+		connectionManager = new org.apache.http.impl.conn.PoolingClientConnectionManager() {
+			@Override
+			protected org.apache.http.conn.ClientConnectionOperator createConnectionOperator(
+					org.apache.http.conn.scheme.SchemeRegistry schemeRegistry) {
+				return new CountingConnectionOperator(schemeRegistry);
+			}
+		};
+		connectionManager.setMaxTotal(poolSize);
+		connectionManager.setDefaultMaxPerRoute(poolSize);
+		org.apache.http.impl.client.DefaultHttpClient client =
+				new org.apache.http.impl.client.DefaultHttpClient(connectionManager);
+		org.apache.http.params.HttpConnectionParams.setConnectionTimeout(client.getParams(), connectTimeoutMillis);
+		org.apache.http.params.HttpConnectionParams.setSoTimeout(client.getParams(), socketTimeoutMillis);
+		config = RestAssuredConfig.config().httpClient(HttpClientConfig.httpClientConfig()
+				.reuseHttpClientInstance()
+				.httpClientFactory(() -> client));
+		if (previousConnectionManager != null) {
+			previousConnectionManager.shutdown();
+		}
+	}
+
+	/**
+	 * Start a request specification using the shared HTTP client,
+	 * with the requests timed by {@link Metrics}.
+	 * The response body is read into memory.
+	 */
+	public static RequestSpecification request() {
+		return RestAssured.given().config(config()).filter(TIMER).filter(BUFFER);
+	}
+
+	/**
+	 * Start a request specification like {@link #request()}, but with the response body left unread,
+	 * e.g. to be verified by {@link #verifyResponseStreaming(Object, String, ValidatableResponse,
+	 * UnaryOperator, String...)}.
+	 * The body must be read or its stream closed, otherwise the connection is not returned to the pool.
+	 */
+	public static RequestSpecification streamingRequest() {
+		return RestAssured.given().config(config()).filter(TIMER);
+	}
+
+	private static RestAssuredConfig config() {
+		if (config == null) {
+			throw new RuntimeException("REST client is not configured. Please initialize REST first.");
+		}
+		return config;
+	}
+
+	/**
+	 * @return number of connections opened by the shared HTTP client,
+	 * compare with the number of requests to see the connection reuse
+	 */
+	public static long getConnectionsOpened() {
+		return connectionsOpened.get();
+	}
+
+	/**
+	 * @return leased, available and maximum connections of the shared HTTP client
+	 */
+	public static PoolStats getConnectionPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	@SuppressWarnings("deprecation") // the HttpClient API of RestAssured 3, see connectionManager
+	private static class CountingConnectionOperator
+			extends org.apache.http.impl.conn.DefaultClientConnectionOperator {
+
+		private CountingConnectionOperator(org.apache.http.conn.scheme.SchemeRegistry schemeRegistry) {
+			super(schemeRegistry);
+		}
+
+		@Override
+		public void openConnection(org.apache.http.conn.OperatedClientConnection connection, HttpHost target,
+		                           InetAddress local, HttpContext context,
+		                           org.apache.http.params.HttpParams params) throws IOException {
+			super.openConnection(connection, target, local, context, params);
+			connectionsOpened.incrementAndGet();
+			Metrics.count("rest.connections.opened", 1);
+		}
+	}
+
+	/**
+	 * Get the compiled JSON path from a bounded LRU cache,
+	 * as {@link DocumentContext} methods taking a path String compile it on every call.
+	 */
+	public static JsonPath compile(String path) {
+		return compiledPaths.computeIfAbsent(path, key -> JsonPath.compile(key));
+	}
+
 	public static DocumentContext setBy(DocumentContext ctx, Map<String, String> data) {
-		data.forEach((key, value) -> ctx.set(key, value));
+		data.forEach((key, value) -> ctx.set(compile(key), value));
 		return ctx;
 	}
 
+	/**
+	 * Override values at the paths by the data, the paths are compiled once.
+	 */
 	public static UnaryOperator<DocumentContext> override(Map<String, String> data) {
-		return ctx -> REST.setBy(ctx, data);
+		Map<JsonPath, String> overrides = new LinkedHashMap<>();
+		data.forEach((key, value) -> overrides.put(compile(key), value));
+		return ctx -> {
+			overrides.forEach(ctx::set);
+			return ctx;
+		};
 	}
 
 	public static UnaryOperator<DocumentContext> override() {
@@ -28,12 +254,20 @@ public class REST {
 
 	public static DocumentContext replace(DocumentContext ctx, String... paths) {
 		Arrays.stream(paths)
-				.forEach(path -> ctx.set(path, "REPLACED"));
+				.forEach(path -> ctx.set(compile(path), "REPLACED"));
 		return ctx;
 	}
 
+	/**
+	 * Replace values at the paths by {@code REPLACED}, the paths are compiled once.
+	 */
 	public static UnaryOperator<DocumentContext> replacer(String... paths) {
-		return ctx -> REST.replace(ctx, paths);
+		List<JsonPath> compiled = new ArrayList<>();
+		Arrays.stream(paths).forEach(path -> compiled.add(compile(path)));
+		return ctx -> {
+			compiled.forEach(path -> ctx.set(path, "REPLACED"));
+			return ctx;
+		};
 	}
 
 	public static void verifyResponse(
@@ -57,16 +291,143 @@ public class REST {
 			ValidatableResponse response,
 			UnaryOperator<DocumentContext> override,
 			UnaryOperator<DocumentContext> replacer) {
-		String expected = File.load(testInstance, fileName);
+		long start = Metrics.start();
+		try {
+			JsonNode expected = expected(testInstance, fileName, override);
+			Matcher<String> matcher = jsonEqualTo(fileName, expected, replacer);
+			response.body(matcher);
+		} finally {
+			Metrics.stop("rest.verifyResponse", start);
+		}
+	}
+
+	/**
+	 * Verify the response body like {@link #verifyResponse(Object, String, ValidatableResponse,
+	 * UnaryOperator, UnaryOperator)}, but read it as a stream token by token instead of as a String,
+	 * so large responses are never held in memory.
+	 *
+	 * @param replacedPaths paths of the values not compared, like the paths of {@link #replacer(String...)}
+	 */
+	public static void verifyResponseStreaming(
+			Object testInstance,
+			String fileName,
+			ValidatableResponse response,
+			UnaryOperator<DocumentContext> override,
+			String... replacedPaths) {
+		long start = Metrics.start();
+		String difference;
+		try {
+			JsonNode expected = expected(testInstance, fileName, override);
+			try (InputStream body = response.extract().asInputStream();
+			     JsonParser parser = JSON.objectMapper.getFactory().createParser(body)) {
+				difference = JSON.difference(expected, parser, Arrays.asList(replacedPaths));
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot read response body.", e);
+			}
+		} finally {
+			Metrics.stop("rest.verifyResponseStreaming", start);
+		}
+		if (difference != null) {
+			Assert.fail("Template file: (" + fileName + ":1), first difference at " + difference);
+		}
+	}
+
+	/**
+	 * Send a request per row and verify each response against the template
+	 * like {@link #verifyResponse(Object, String, ValidatableResponse, UnaryOperator, UnaryOperator)},
+	 * with the requests sent and the responses verified concurrently.
+	 * All the responses are verified and all the mismatches are reported together.
+	 *
+	 * @param concurrency number of requests in progress at the same time
+	 * @param rows        rows, e.g. of a data table
+	 * @param request     request of a row, it may also check the response, e.g. the status code
+	 * @param override    override of the template by the row
+	 * @param replacer    replacing function, or null
+	 */
+	public static void verifyResponses(
+			Object testInstance,
+			String fileName,
+			int concurrency,
+			List<Map<String, String>> rows,
+			Function<Map<String, String>, ValidatableResponse> request,
+			Function<Map<String, String>, UnaryOperator<DocumentContext>> override,
+			UnaryOperator<DocumentContext> replacer) {
+		long start = Metrics.start();
+		List<String> mismatches = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+			Thread thread = new Thread(runnable, "rest-verify");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (Map<String, String> row : rows) {
+				results.add(executor.submit(() -> {
+					try {
+						verifyResponse(testInstance, fileName, request.apply(row), override.apply(row), replacer);
+						return null;
+					} catch (Exception | AssertionError e) {
+						return row + "\n" + e.getMessage();
+					}
+				}));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				String mismatch = results.get(i).get();
+				if (mismatch != null) {
+					mismatches.add("Row " + (i + 1) + ": " + mismatch);
+				}
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Error verifying responses.", e);
+		} finally {
+			executor.shutdownNow();
+			Metrics.stop("rest.verifyResponses", start);
+		}
+		if (!mismatches.isEmpty()) {
+			Assert.fail(mismatches.size() + " of " + rows.size() + " responses do not match:\n\n"
+					+ String.join("\n\n", mismatches));
+		}
+	}
+
+	private static JsonNode expected(
+			Object testInstance, String fileName, UnaryOperator<DocumentContext> override) {
+		JsonNode expected = template(testInstance, fileName);
 		if (override != null) {
-			expected = override.apply(JsonPath.parse(expected)).jsonString();
+			expected = override.apply(JsonPath.using(JSON.jsonNodeConfiguration).parse(expected.deepCopy()))
+					.json();
+		}
+		return expected;
+	}
+
+	/**
+	 * Get the parsed JSON template, parsing it directly from the file bytes (see {@link File#stream(Object, String)})
+	 * only when it is first used or when it was modified in {@link File#devMode}.
+	 * The template is shared and must not be modified, use a {@link JsonNode#deepCopy()}.
+	 */
+	private static JsonNode template(Object testInstance, String fileName) {
+		Class<?> testClass = testInstance.getClass();
+		String key = testClass.getName() + ":" + fileName;
+		Template template = templates.get(key);
+		if (template == null
+				|| File.devMode && template.lastModified != File.lastModified(testClass, fileName)) {
+			long lastModified = File.lastModified(testClass, fileName);
+			try (InputStream stream = File.stream(testClass, fileName)) {
+				template = new Template(lastModified, JSON.convertToJson(stream, fileName));
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot read file " + fileName + ".", e);
+			}
+			templates.put(key, template);
 		}
-		Matcher<String> matcher;
-		if (replacer == null) {
-			matcher = jsonEqualTo(fileName, expected);
-		} else {
-			matcher = jsonEqualTo(fileName, expected, replacer);
+		return template.json;
+	}
+
+	private static class Template {
+		private final long lastModified;
+		private final JsonNode json;
+
+		private Template(long lastModified, JsonNode json) {
+			this.lastModified = lastModified;
+			this.json = json;
 		}
-		response.body(matcher);
 	}
 }
@@ -0,0 +1,204 @@
+package ft.support;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP server replaying recorded responses.
+ * <p>
+ * A response to {@code GET /api/people/1/} is recorded in {@code <recordings>/api/people/1.json},
+ * responses to other methods in e.g. {@code <recordings>/api/people.POST.json}.
+ * A recording is a JSON object with the {@code status}, {@code contentType} and {@code body} of the response,
+ * a JSON body is kept as JSON, so that it can be read and edited.
+ * <p>
+ * In record mode requests without a recording are forwarded to the recorded API
+ * and its responses are recorded.
+ * Otherwise they get a 404 response, until the recording is added.
+ */
+public class StubServer {
+
+	static {
+		// without TCP_NODELAY a response written in several packets waits for a delayed ACK (~40 ms)
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private final Path recordings;
+	private final String recordFrom;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Map<Path, Recording> cache = new ConcurrentHashMap<>();
+
+	/**
+	 * @param port       port, 0 for any free port
+	 * @param recordings directory of the recordings
+	 * @param recordFrom URL of the recorded API, or null to only replay
+	 */
+	public StubServer(int port, Path recordings, String recordFrom) {
+		this.recordings = recordings;
+		this.recordFrom = recordFrom == null || recordFrom.isEmpty() ? null : recordFrom;
+		try {
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot start stub server on port " + port + ". Is it free?", e);
+		}
+		executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "stub-server");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+	}
+
+	public void start() {
+		// the dispatcher thread inherits the daemon flag, so that a running server does not keep the JVM alive
+		Thread starter = new Thread(server::start);
+		starter.setDaemon(true);
+		starter.start();
+		try {
+			starter.join();
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted starting stub server.", e);
+		}
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return base URL of the server, e.g. {@code http://127.0.0.1:8123}
+	 */
+	public String url() {
+		InetSocketAddress address = server.getAddress();
+		return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		long start = Metrics.start();
+		try {
+			Path file = recordingFile(exchange.getRequestMethod(), exchange.getRequestURI().getPath());
+			Recording recording = cache.get(file);
+			if (recording == null) {
+				if (Files.exists(file)) {
+					recording = new Recording(JSON.objectMapper.readTree(file.toFile()));
+					cache.put(file, recording);
+				} else if (recordFrom != null) {
+					recording = record(exchange, file);
+					cache.put(file, recording);
+				} else {
+					// not cached, so that a recording added meanwhile (e.g. by another recording run) is replayed
+					recording = new Recording(404, "text/plain",
+							("No recording " + file + ". Record it with rest.stub.recordFrom.")
+									.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			exchange.getResponseHeaders().set("Content-Type", recording.contentType);
+			exchange.sendResponseHeaders(recording.status, recording.body.length == 0 ? -1 : recording.body.length);
+			try (OutputStream body = exchange.getResponseBody()) {
+				body.write(recording.body);
+			}
+			Metrics.count("stub.bytes", recording.body.length);
+		} finally {
+			exchange.close();
+			Metrics.stop("stub.request", start);
+		}
+	}
+
+	private Path recordingFile(String method, String path) {
+		String name = path.replaceAll("^/+|/+$", "");
+		if (name.isEmpty()) {
+			name = "index";
+		}
+		String suffix = "GET".equals(method) ? ".json" : "." + method + ".json";
+		return recordings.resolve(name + suffix);
+	}
+
+	private Recording record(HttpExchange exchange, Path file) throws IOException {
+		URL url = new URL(recordFrom + exchange.getRequestURI());
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(exchange.getRequestMethod());
+		byte[] requestBody = IOUtils.toByteArray(exchange.getRequestBody());
+		if (requestBody.length > 0) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type",
+					exchange.getRequestHeaders().getFirst("Content-Type"));
+			try (OutputStream body = connection.getOutputStream()) {
+				body.write(requestBody);
+			}
+		}
+		int status = connection.getResponseCode();
+		String contentType = connection.getContentType();
+		byte[] body;
+		try (InputStream stream = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			body = stream == null ? new byte[0] : IOUtils.toByteArray(stream);
+		}
+		Recording recording = new Recording(status, contentType == null ? "text/plain" : contentType, body);
+		Files.createDirectories(file.getParent());
+		Files.write(file, recording.toJson().getBytes(StandardCharsets.UTF_8));
+		return recording;
+	}
+
+	private static class Recording {
+		private final int status;
+		private final String contentType;
+		private final byte[] body;
+
+		private Recording(int status, String contentType, byte[] body) {
+			this.status = status;
+			this.contentType = contentType;
+			this.body = body;
+		}
+
+		private Recording(JsonNode recording) throws IOException {
+			status = recording.path("status").asInt(200);
+			contentType = recording.path("contentType").asText("application/json");
+			JsonNode body = recording.path("body");
+			if (body.isTextual()) {
+				this.body = body.textValue().getBytes(StandardCharsets.UTF_8);
+			} else if (body.isMissingNode()) {
+				this.body = new byte[0];
+			} else {
+				this.body = JSON.objectMapper.writeValueAsBytes(body);
+			}
+		}
+
+		private boolean isJson() {
+			return contentType.contains("json");
+		}
+
+		private String toJson() {
+			ObjectNode recording = JSON.objectMapper.createObjectNode();
+			recording.put("status", status);
+			recording.put("contentType", contentType);
+			String text = new String(body, StandardCharsets.UTF_8);
+			if (isJson() && body.length > 0) {
+				recording.set("body", JSON.convertToJson(text));
+			} else {
+				recording.put("body", text);
+			}
+			return JSON.convertToString(recording);
+		}
+	}
+}
@@ -0,0 +1,8 @@
+-- Tables shared by the scenarios instead of being cloned per scenario, created empty once per JVM
+create table if not exists customer_shared (
+	id bigint not null primary key,
+	name varchar2(100) not null,
+	date_acquired date,
+	time_created timestamp not null,
+	comment varchar2(100)
+);